@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.api;
+
+import jakarta.enterprise.util.AnnotationLiteral;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Optional annotation that limits the number of concurrent executions of a protected method
+ * with a limit which adapts itself to the observed latencies.
+ *
+ * <p>While the latency is stable, the limit grows by one per sample window (if it's used).
+ * Once the latency of a window exceeds {@link #latencyTolerance()} percent of the long-term latency
+ * (or a call exceeds the timeout of {@link ExecutionFailure}), the limit gets cut.
+ * Calls exceeding the current limit are rejected with a {@link ServiceOverloadedException}.
+ * See the DeltaSpike config key {@code AdaptiveConcurrencyLimit_sampleWindowMillis} (default: {@code 500}).</p>
+ *
+ * <p>Can't be combined with {@link MaxConcurrentCalls}.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface AdaptiveConcurrencyLimit {
+
+    /**
+     * The limit before the first sample window is over.
+     *
+     * @return the initial limit
+     */
+    int initialLimit() default 20;
+
+    /**
+     * The lower bound of the limit.
+     *
+     * @return the min. limit
+     */
+    int minLimit() default 1;
+
+    /**
+     * The upper bound of the limit.
+     *
+     * @return the max. limit
+     */
+    int maxLimit() default 200;
+
+    /**
+     * The percentage of the long-term latency from which on the limit gets cut (has to be greater than 100).
+     *
+     * @return the tolerance in percent
+     */
+    int latencyTolerance() default 150;
+
+    /**
+     * Annotation literal for programmatic use of {@link AdaptiveConcurrencyLimit}.
+     */
+    class Literal extends AnnotationLiteral<AdaptiveConcurrencyLimit> implements AdaptiveConcurrencyLimit {
+
+        private static final long serialVersionUID = -6016365270151950829L;
+
+        private final int initialLimit;
+        private final int minLimit;
+        private final int maxLimit;
+        private final int latencyTolerance;
+
+        /**
+         * Creates a literal with the given limits.
+         *
+         * @param initialLimit     the initial limit
+         * @param minLimit         the min. limit
+         * @param maxLimit         the max. limit
+         * @param latencyTolerance the tolerance in percent
+         */
+        Literal(int initialLimit, int minLimit, int maxLimit, int latencyTolerance) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.latencyTolerance = latencyTolerance;
+        }
+
+        @Override
+        public int initialLimit() {
+            return initialLimit;
+        }
+
+        @Override
+        public int minLimit() {
+            return minLimit;
+        }
+
+        @Override
+        public int maxLimit() {
+            return maxLimit;
+        }
+
+        @Override
+        public int latencyTolerance() {
+            return latencyTolerance;
+        }
+    }
+}
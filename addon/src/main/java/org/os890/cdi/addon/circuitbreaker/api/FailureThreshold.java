@@ -26,6 +26,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Optional annotation that defines how many failures are acceptable before the
@@ -33,6 +34,11 @@ import java.lang.annotation.Target;
  *
  * <p>The circuit opens when {@link #failures()} out of the last
  * {@link #executions()} invocations have failed.</p>
+ *
+ * <p>With a {@link #period()} the window is time-based instead: the circuit opens when the failure rate of the
+ * calls within the last period reaches {@link #failures()} / {@link #executions()} (rounded up to full percents),
+ * but just if at least {@link #executions()} calls were made within the period. That avoids flipping on noise
+ * for high call rates as well as reacting late for low call rates.</p>
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
@@ -53,6 +59,20 @@ public @interface FailureThreshold {
      */
     int executions();
 
+    /**
+     * The length of a time-based window. {@code 0} (default) uses the count-based window of {@link #executions()}.
+     *
+     * @return the period amount
+     */
+    int period() default 0;
+
+    /**
+     * The time unit for the period.
+     *
+     * @return the time unit
+     */
+    TimeUnit periodUnit() default TimeUnit.SECONDS;
+
     /** Default literal with 8 failures out of 10 executions. */
     Literal DEFAULT = new Literal();
 
@@ -65,10 +85,11 @@ public @interface FailureThreshold {
 
         private final int failures;
         private final int executions;
+        private final int period;
+        private final TimeUnit periodUnit;
 
         private Literal() {
-            failures = 8;
-            executions = 10;
+            this(8, 10);
         }
 
         /**
@@ -78,8 +99,22 @@ public @interface FailureThreshold {
          * @param executions the execution window size
          */
         Literal(int failures, int executions) {
+            this(failures, executions, 0, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Creates a literal with a time-based window.
+         *
+         * @param failures   the failure count
+         * @param executions the min. number of calls within the period
+         * @param period     the period amount
+         * @param periodUnit the time unit of the period
+         */
+        Literal(int failures, int executions, int period, TimeUnit periodUnit) {
             this.failures = failures;
             this.executions = executions;
+            this.period = period;
+            this.periodUnit = periodUnit;
         }
 
         @Override
@@ -91,5 +126,15 @@ public @interface FailureThreshold {
         public int executions() {
             return executions;
         }
+
+        @Override
+        public int period() {
+            return period;
+        }
+
+        @Override
+        public TimeUnit periodUnit() {
+            return periodUnit;
+        }
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.api;
+
+import jakarta.enterprise.util.AnnotationLiteral;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional annotation that limits the number of concurrent executions of a protected method (bulkhead).
+ *
+ * <p>A call which doesn't get a permit within {@link #maxWait()} is rejected with a
+ * {@link ServiceOverloadedException} (without invoking the method and without affecting the circuit).
+ * That way one slow dependency can't occupy all request threads before the circuit opens.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface MaxConcurrentCalls {
+
+    /**
+     * The max. number of concurrent executions.
+     *
+     * @return the number of permits
+     */
+    int value();
+
+    /**
+     * The max. time a call waits for a permit. {@code 0} (default) rejects calls immediately.
+     *
+     * @return the wait amount
+     */
+    int maxWait() default 0;
+
+    /**
+     * The time unit for the max. wait time.
+     *
+     * @return the time unit
+     */
+    TimeUnit timeUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Annotation literal for programmatic use of {@link MaxConcurrentCalls}.
+     */
+    class Literal extends AnnotationLiteral<MaxConcurrentCalls> implements MaxConcurrentCalls {
+
+        private static final long serialVersionUID = 4316447318407612826L;
+
+        private final int value;
+        private final int maxWait;
+        private final TimeUnit timeUnit;
+
+        /**
+         * Creates a literal with the given limit and max. wait time.
+         *
+         * @param value    the number of permits
+         * @param maxWait  the wait amount
+         * @param timeUnit the time unit
+         */
+        Literal(int value, int maxWait, TimeUnit timeUnit) {
+            this.value = value;
+            this.maxWait = maxWait;
+            this.timeUnit = timeUnit;
+        }
+
+        @Override
+        public int value() {
+            return value;
+        }
+
+        @Override
+        public int maxWait() {
+            return maxWait;
+        }
+
+        @Override
+        public TimeUnit timeUnit() {
+            return timeUnit;
+        }
+    }
+}
@@ -50,4 +50,26 @@ public @interface OverloadProtection {
      */
     @Nonbinding
     boolean collectMetrics() default true;
+
+    /**
+     * The circuit-breaker engine used for this method.
+     * {@link Engine#DEFAULT} uses the engine configured via the DeltaSpike config key
+     * {@code OverloadProtection_engine} (default: {@link Engine#FAILSAFE}).
+     *
+     * @return the engine
+     */
+    @Nonbinding
+    Engine engine() default Engine.DEFAULT;
+
+    /**
+     * Enumeration of the available circuit-breaker engines.
+     */
+    enum Engine {
+        /** The globally configured engine. */
+        DEFAULT,
+        /** Failsafe {@code CircuitBreaker} combined with a Failsafe {@code Timeout}. */
+        FAILSAFE,
+        /** Allocation-free, lock-free engine of this add-on (supports failure windows of up to 32 executions). */
+        NATIVE
+    }
 }
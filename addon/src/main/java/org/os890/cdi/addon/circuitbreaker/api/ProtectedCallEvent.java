@@ -20,28 +20,46 @@
 package org.os890.cdi.addon.circuitbreaker.api;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Event fired after a protected method call completes, carrying the call
- * duration for metrics collection.
+ * duration (measured via {@link System#nanoTime()}) for metrics collection.
+ *
+ * <p>The built-in metrics don't depend on this event. It's just fired if the DeltaSpike config key
+ * {@code OverloadProtection_fireProtectedCallEvents} is set to {@code true}.</p>
  */
 public class ProtectedCallEvent {
 
     private final String key;
+    private final int methodId;
     private Method currentMethod;
-    private final long duration;
+    private final long durationNanos;
 
     /**
      * Creates a new protected call event.
      *
      * @param key           the key identifying the protected method
      * @param currentMethod the method that was invoked
-     * @param duration      the call duration in milliseconds
+     * @param durationNanos the call duration in nanoseconds
      */
-    public ProtectedCallEvent(String key, Method currentMethod, long duration) {
+    public ProtectedCallEvent(String key, Method currentMethod, long durationNanos) {
+        this(key, -1, currentMethod, durationNanos);
+    }
+
+    /**
+     * Creates a new protected call event.
+     *
+     * @param key           the key identifying the protected method
+     * @param methodId      the dense id of the protected method
+     * @param currentMethod the method that was invoked
+     * @param durationNanos the call duration in nanoseconds
+     */
+    public ProtectedCallEvent(String key, int methodId, Method currentMethod, long durationNanos) {
         this.key = key;
+        this.methodId = methodId;
         this.currentMethod = currentMethod;
-        this.duration = duration;
+        this.durationNanos = durationNanos;
     }
 
     /**
@@ -53,6 +71,16 @@ public class ProtectedCallEvent {
         return key;
     }
 
+    /**
+     * Returns the dense id of the protected method, e.g. to index per-method arrays of an observer
+     * instead of hashing the key.
+     *
+     * @return the method id (or {@code -1} if unknown)
+     */
+    public int getMethodId() {
+        return methodId;
+    }
+
     /**
      * Returns the method that was invoked.
      *
@@ -66,8 +94,29 @@ public class ProtectedCallEvent {
      * Returns the call duration in milliseconds.
      *
      * @return the duration
+     * @deprecated sub-millisecond calls are reported as {@code 0}, use {@link #getDuration(TimeUnit)} instead
      */
+    @Deprecated
     public long getDuration() {
-        return duration;
+        return getDuration(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the call duration in the given unit (truncated).
+     *
+     * @param timeUnit the unit of the result
+     * @return the duration
+     */
+    public long getDuration(TimeUnit timeUnit) {
+        return timeUnit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the call duration in nanoseconds.
+     *
+     * @return the duration
+     */
+    public long getDurationNanos() {
+        return durationNanos;
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.api;
+
+import jakarta.enterprise.util.AnnotationLiteral;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional annotation that limits the number of calls of a protected method per period (token bucket).
+ *
+ * <p>A call which doesn't get a permit within {@link #maxWait()} is rejected with a
+ * {@link ServiceOverloadedException} before the circuit gets checked (without invoking the method
+ * and without affecting the circuit).</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface RateLimit {
+
+    /**
+     * The number of calls per period.
+     *
+     * @return the permits per period
+     */
+    int permits();
+
+    /**
+     * The length of the period.
+     *
+     * @return the period amount
+     */
+    int period() default 1;
+
+    /**
+     * The time unit for the period.
+     *
+     * @return the time unit
+     */
+    TimeUnit periodUnit() default TimeUnit.SECONDS;
+
+    /**
+     * The max. time a call waits for a permit. {@code 0} (default) rejects calls immediately.
+     *
+     * @return the wait amount
+     */
+    int maxWait() default 0;
+
+    /**
+     * The time unit for the max. wait time.
+     *
+     * @return the time unit
+     */
+    TimeUnit maxWaitUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * The way the permits get handed out within a period.
+     *
+     * @return the mode
+     */
+    Mode mode() default Mode.BURSTY;
+
+    /**
+     * Enumeration of the supported ways to hand out permits.
+     */
+    enum Mode {
+        /** All permits of a period may be used at once (e.g. after an idle period). */
+        BURSTY,
+        /** The permits are spread evenly across the period (one permit per {@code period / permits}). */
+        SMOOTH
+    }
+
+    /**
+     * Annotation literal for programmatic use of {@link RateLimit}.
+     */
+    class Literal extends AnnotationLiteral<RateLimit> implements RateLimit {
+
+        private static final long serialVersionUID = 2907214374431815516L;
+
+        private final int permits;
+        private final int period;
+        private final TimeUnit periodUnit;
+        private final int maxWait;
+        private final TimeUnit maxWaitUnit;
+        private final Mode mode;
+
+        /**
+         * Creates a literal with the given limit.
+         *
+         * @param permits     the permits per period
+         * @param period      the period amount
+         * @param periodUnit  the time unit of the period
+         * @param maxWait     the wait amount
+         * @param maxWaitUnit the time unit of the max. wait time
+         * @param mode        the mode
+         */
+        Literal(int permits, int period, TimeUnit periodUnit, int maxWait, TimeUnit maxWaitUnit, Mode mode) {
+            this.permits = permits;
+            this.period = period;
+            this.periodUnit = periodUnit;
+            this.maxWait = maxWait;
+            this.maxWaitUnit = maxWaitUnit;
+            this.mode = mode;
+        }
+
+        @Override
+        public int permits() {
+            return permits;
+        }
+
+        @Override
+        public int period() {
+            return period;
+        }
+
+        @Override
+        public TimeUnit periodUnit() {
+            return periodUnit;
+        }
+
+        @Override
+        public int maxWait() {
+            return maxWait;
+        }
+
+        @Override
+        public TimeUnit maxWaitUnit() {
+            return maxWaitUnit;
+        }
+
+        @Override
+        public Mode mode() {
+            return mode;
+        }
+    }
+}
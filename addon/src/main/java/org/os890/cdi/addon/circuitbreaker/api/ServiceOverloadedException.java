@@ -35,4 +35,25 @@ public class ServiceOverloadedException extends RuntimeException {
     public ServiceOverloadedException(Throwable cause) {
         super(cause);
     }
+
+    /**
+     * Creates a new service overloaded exception with the given message.
+     *
+     * @param message the detail message
+     */
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new service overloaded exception with the given message. Without a stack trace
+     * creating the exception is cheap, which is important if a lot of calls get rejected.
+     * Suppressed exceptions are disabled to allow sharing an instance across calls.
+     *
+     * @param message            the detail message
+     * @param writableStackTrace {@code false} to create the exception without a stack trace
+     */
+    public ServiceOverloadedException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
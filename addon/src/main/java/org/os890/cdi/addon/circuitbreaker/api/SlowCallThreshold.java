@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.api;
+
+import jakarta.enterprise.util.AnnotationLiteral;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional annotation that opens the circuit if too many successful calls are slow,
+ * even though they don't fail.
+ *
+ * <p>A call which takes at least {@link #duration()} is slow. Once {@link #rate()} percent of the
+ * last {@link #window()} successful calls were slow, the circuit opens (and fires the same
+ * {@link CircuitEvent}s as for failures). Failed and timed-out calls are handled by
+ * {@link FailureThreshold} and {@link ExecutionFailure}. A slow trial execution of a half-open
+ * circuit re-opens the circuit.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface SlowCallThreshold {
+
+    /**
+     * The duration value from which on a call is slow.
+     *
+     * @return the duration amount
+     */
+    int duration();
+
+    /**
+     * The time unit for the duration.
+     *
+     * @return the time unit
+     */
+    TimeUnit timeUnit();
+
+    /**
+     * The percentage (1-100) of slow calls within the window which opens the circuit.
+     *
+     * @return the slow-call rate in percent
+     */
+    int rate() default 50;
+
+    /**
+     * The number of (successful) calls considered by the rate (max. 32).
+     *
+     * @return the window size
+     */
+    int window() default 10;
+
+    /**
+     * Annotation literal for programmatic use of {@link SlowCallThreshold}.
+     */
+    class Literal extends AnnotationLiteral<SlowCallThreshold> implements SlowCallThreshold {
+
+        private static final long serialVersionUID = -2514237387035734519L;
+
+        private final int duration;
+        private final TimeUnit timeUnit;
+        private final int rate;
+        private final int window;
+
+        /**
+         * Creates a literal with the given threshold.
+         *
+         * @param duration the duration amount
+         * @param timeUnit the time unit
+         * @param rate     the slow-call rate in percent
+         * @param window   the window size
+         */
+        Literal(int duration, TimeUnit timeUnit, int rate, int window) {
+            this.duration = duration;
+            this.timeUnit = timeUnit;
+            this.rate = rate;
+            this.window = window;
+        }
+
+        @Override
+        public int duration() {
+            return duration;
+        }
+
+        @Override
+        public TimeUnit timeUnit() {
+            return timeUnit;
+        }
+
+        @Override
+        public int rate() {
+            return rate;
+        }
+
+        @Override
+        public int window() {
+            return window;
+        }
+    }
+}
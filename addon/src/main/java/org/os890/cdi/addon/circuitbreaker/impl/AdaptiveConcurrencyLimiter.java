@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit which adapts itself to the observed latencies (see {@code @AdaptiveConcurrencyLimit}).
+ *
+ * <p>AIMD with a latency gradient: the durations of the calls get collected per sample window.
+ * Once a window is over, its average latency gets compared with the long-term (smoothed) latency.
+ * If it exceeds the tolerance (or a call timed out), the limit gets cut by {@link #BACKOFF_RATIO}.
+ * Otherwise - if the in-flight calls actually reached the limit within the window - it gets increased by one.
+ * That way the limit converges to the point where additional concurrency just adds queueing time.</p>
+ *
+ * <p>Acquiring a permit is a CAS on the in-flight counter and recording a sample just adds to a
+ * {@link LongAdder} (count and duration are packed into one value, so a sample can't be split across two windows).
+ * The limit gets updated by one thread per window (via {@link ReentrantLock#tryLock()}).</p>
+ */
+public class AdaptiveConcurrencyLimiter implements ConcurrencyLimiter {
+
+    /** Factor for cutting the limit. */
+    public static final double BACKOFF_RATIO = 0.9;
+
+    /** Min. number of samples per window (short windows get extended until they have enough samples). */
+    public static final int MIN_SAMPLES = 10;
+
+    //weight of a window for the long-term latency
+    private static final double SMOOTHING = 0.05;
+
+    //a sample is packed as duration in microseconds (upper 40 bits) and count (lower 24 bits) - the durations
+    //of a window are bounded by limit * window length (Little's law), so they don't overflow
+    private static final int SAMPLE_COUNT_BITS = 24;
+    private static final long SAMPLE_COUNT_MASK = (1L << SAMPLE_COUNT_BITS) - 1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final long sampleWindowNanos;
+
+    private final AtomicInteger inFlightCalls = new AtomicInteger();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private volatile int limit;
+
+    private final LongAdder samples = new LongAdder();
+    private volatile boolean limitUsed;
+    private volatile boolean timeoutOccurred;
+    private volatile long windowStart = System.nanoTime();
+
+    private final ReentrantLock updateLock = new ReentrantLock();
+    //just accessed with the update lock
+    private double longTermLatencyNanos;
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param initialLimit      the limit before the first window is over
+     * @param minLimit          the lower bound of the limit
+     * @param maxLimit          the upper bound of the limit
+     * @param latencyTolerance  the percentage of the long-term latency from which on the limit gets cut
+     * @param sampleWindowNanos the min. length of a sample window
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int latencyTolerance, long sampleWindowNanos) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("invalid limits: 1 <= minLimit <= initialLimit <= maxLimit is required");
+        }
+        if (latencyTolerance <= 100) {
+            throw new IllegalArgumentException("the latency tolerance has to be greater than 100 percent");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance / 100.0;
+        this.sampleWindowNanos = sampleWindowNanos;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlightCalls.get();
+
+            int currentLimit = limit;
+
+            if (current >= currentLimit) {
+                rejectedCalls.increment();
+                markLimitUsed();
+                return false;
+            }
+            if (inFlightCalls.compareAndSet(current, current + 1)) {
+                if (current + 1 == currentLimit) {
+                    markLimitUsed();
+                }
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(long durationNanos, CallOutcome outcome) {
+        inFlightCalls.decrementAndGet();
+
+        if (outcome == CallOutcome.REJECTED) {
+            return; //the method wasn't invoked - no latency sample
+        }
+
+        if (outcome == CallOutcome.TIMEOUT) {
+            if (!timeoutOccurred) {
+                timeoutOccurred = true;
+            }
+        } else {
+            samples.add((Math.max(0L, durationNanos / 1_000) << SAMPLE_COUNT_BITS) + 1);
+        }
+
+        long now = System.nanoTime();
+        if (now - windowStart >= sampleWindowNanos && updateLock.tryLock()) {
+            try {
+                updateLimit(now);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return inFlightCalls.get();
+    }
+
+    @Override
+    public int getMaxConcurrentCalls() {
+        return limit;
+    }
+
+    @Override
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    private void markLimitUsed() {
+        //read before write to avoid a volatile write (and cache-line contention) per call
+        if (!limitUsed) {
+            limitUsed = true;
+        }
+    }
+
+    private void updateLimit(long now) {
+        if (now - windowStart < sampleWindowNanos) {
+            return; //updated by a parallel thread
+        }
+
+        boolean timeout = timeoutOccurred;
+        if (!timeout && (samples.sum() & SAMPLE_COUNT_MASK) < MIN_SAMPLES) {
+            return;
+        }
+
+        long packedSamples = samples.sumThenReset();
+        long count = packedSamples & SAMPLE_COUNT_MASK;
+        long durationsMicros = packedSamples >>> SAMPLE_COUNT_BITS;
+        boolean used = limitUsed;
+        timeoutOccurred = false;
+        limitUsed = false;
+        windowStart = now;
+
+        int currentLimit = limit;
+        int newLimit = currentLimit;
+
+        if (timeout) {
+            newLimit = (int) (currentLimit * BACKOFF_RATIO);
+        } else {
+            double latencyNanos = durationsMicros * 1_000d / count;
+
+            if (longTermLatencyNanos == 0) {
+                longTermLatencyNanos = latencyNanos;
+            }
+
+            if (latencyNanos > longTermLatencyNanos * latencyTolerance) {
+                newLimit = (int) (currentLimit * BACKOFF_RATIO);
+            } else if (used) {
+                newLimit = currentLimit + 1;
+            }
+            //also follows permanent changes of the latency (e.g. of a slower dependency)
+            longTermLatencyNanos += (latencyNanos - longTermLatencyNanos) * SMOOTHING;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+}
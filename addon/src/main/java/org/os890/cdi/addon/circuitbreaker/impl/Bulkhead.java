@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent executions of a protected method (see {@code @MaxConcurrentCalls}).
+ *
+ * <p>Based on a non-fair {@link Semaphore}: acquiring and releasing a free permit is a CAS
+ * (no lock), just calls which wait for a permit get parked.</p>
+ */
+public class Bulkhead implements ConcurrencyLimiter {
+
+    private final int maxConcurrentCalls;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * Creates a new bulkhead.
+     *
+     * @param maxConcurrentCalls the max. number of concurrent executions
+     * @param maxWaitNanos       the max. time a call waits for a permit ({@code 0} = no waiting)
+     */
+    public Bulkhead(int maxConcurrentCalls, long maxWaitNanos) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("at least one concurrent call has to be permitted");
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitNanos = maxWaitNanos;
+        this.permits = new Semaphore(maxConcurrentCalls);
+    }
+
+    /**
+     * Tries to acquire a permit (waits up to the max. wait time if there is no free permit).
+     *
+     * @return {@code true} if the execution is permitted
+     */
+    @Override
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        if (maxWaitNanos > 0) {
+            try {
+                if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                //rejected like a timed out call - the caller should see the interruption
+                Thread.currentThread().interrupt();
+            }
+        }
+        rejectedCalls.increment();
+        return false;
+    }
+
+    @Override
+    public void release(long durationNanos, CallOutcome outcome) {
+        permits.release();
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    @Override
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    @Override
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+}
@@ -20,27 +20,37 @@
 package org.os890.cdi.addon.circuitbreaker.impl;
 
 import dev.failsafe.CircuitBreaker;
+import dev.failsafe.CircuitBreakerBuilder;
+import org.apache.deltaspike.core.api.config.ConfigResolver;
 import org.os890.cdi.addon.circuitbreaker.api.CircuitEvent;
 import org.os890.cdi.addon.circuitbreaker.api.CircuitOpenDelay;
 import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
 import org.os890.cdi.addon.circuitbreaker.api.FailureThreshold;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+import org.os890.cdi.addon.circuitbreaker.api.SlowCallThreshold;
 import org.os890.cdi.addon.circuitbreaker.api.SuccessThreshold;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 
 import java.lang.reflect.Method;
 import java.time.Duration;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Application-scoped provider that creates and caches {@link CircuitBreaker}
- * instances per protected method.
+ * (or {@link NativeCircuitBreaker}) instances per protected method.
  *
  * <p>Each circuit breaker is configured from annotations on the target method
- * and fires CDI events on state transitions.</p>
+ * and fires CDI events on state transitions. The registry is a concurrent map,
+ * so breakers of different methods can be created in parallel without a global lock.</p>
+ *
+ * <p>Methods annotated with {@link SlowCallThreshold} additionally get a {@link SlowCallTracker},
+ * which gets reset whenever the circuit of the method opens.</p>
  */
 @ApplicationScoped
 public class CircuitBreakerProvider {
@@ -59,7 +69,46 @@ public class CircuitBreakerProvider {
     @CircuitState(CircuitState.Value.CLOSED)
     private Event<CircuitEvent> circuitClosedBroadcaster;
 
-    private Map<String, CircuitBreaker<Object>> circuitBreakerMap = new HashMap<>();
+    private final Map<String, CircuitBreaker<Object>> circuitBreakerMap = new ConcurrentHashMap<>();
+    private final Map<String, NativeCircuitBreaker> nativeCircuitBreakerMap = new ConcurrentHashMap<>();
+    private final Map<String, SlowCallTracker> slowCallTrackerMap = new ConcurrentHashMap<>();
+
+    private OverloadProtection.Engine defaultEngine;
+
+    /**
+     * Initialises the default engine from DeltaSpike configuration.
+     */
+    @PostConstruct
+    protected void init() {
+        String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                OverloadProtection.class.getSimpleName() + "_engine", OverloadProtection.Engine.FAILSAFE.name());
+        defaultEngine = OverloadProtection.Engine.valueOf(configuredValue.trim().toUpperCase());
+
+        if (defaultEngine == OverloadProtection.Engine.DEFAULT) {
+            defaultEngine = OverloadProtection.Engine.FAILSAFE;
+        }
+    }
+
+    /**
+     * Checks if the given method should use a {@link NativeCircuitBreaker}. Methods which use the native engine
+     * just because of the global config, but need a bigger (count-based) failure window, fall back to Failsafe.
+     *
+     * @param currentMethod the protected method
+     * @return {@code true} if the native engine should be used
+     */
+    public boolean isNativeEngineFor(Method currentMethod) {
+        OverloadProtection.Engine engine = getEngine(currentMethod);
+
+        if (engine == OverloadProtection.Engine.DEFAULT) {
+            engine = defaultEngine;
+        }
+
+        if (engine != OverloadProtection.Engine.NATIVE) {
+            return false;
+        }
+        FailureThreshold failureThreshold = getFailureThreshold(currentMethod);
+        return failureThreshold.period() > 0 || failureThreshold.executions() <= NativeCircuitBreaker.MAX_EXECUTIONS;
+    }
 
     /**
      * Returns the circuit breaker for the given descriptor, creating it if necessary.
@@ -71,52 +120,175 @@ public class CircuitBreakerProvider {
         CircuitBreaker<Object> circuitBreaker = circuitBreakerMap.get(circuitBreakerDescriptor.getKey());
 
         if (circuitBreaker == null) {
-            circuitBreaker = buildCircuitBreaker(circuitBreakerDescriptor);
+            //only locks the bin of the key (and not the whole registry)
+            circuitBreaker = circuitBreakerMap.computeIfAbsent(
+                    circuitBreakerDescriptor.getKey(), key -> buildCircuitBreaker(circuitBreakerDescriptor));
         }
         return circuitBreaker;
     }
 
-    private synchronized CircuitBreaker<Object> buildCircuitBreaker(CircuitBreakerDescriptor circuitBreakerDescriptor) {
-        CircuitBreaker<Object> circuitBreaker = circuitBreakerMap.get(circuitBreakerDescriptor.getKey());
+    /**
+     * Returns the native circuit breaker for the given descriptor, creating it if necessary.
+     *
+     * @param circuitBreakerDescriptor the descriptor identifying the circuit breaker
+     * @return the circuit breaker instance
+     */
+    public NativeCircuitBreaker getNativeCircuitBreakerFor(CircuitBreakerDescriptor circuitBreakerDescriptor) {
+        NativeCircuitBreaker circuitBreaker = nativeCircuitBreakerMap.get(circuitBreakerDescriptor.getKey());
 
-        if (circuitBreaker != null) {
-            return circuitBreaker;
+        if (circuitBreaker == null) {
+            circuitBreaker = nativeCircuitBreakerMap.computeIfAbsent(
+                    circuitBreakerDescriptor.getKey(), key -> buildNativeCircuitBreaker(circuitBreakerDescriptor));
         }
+        return circuitBreaker;
+    }
 
-        Method currentMethod = circuitBreakerDescriptor.getCurrentMethod();
+    /**
+     * Returns the slow-call tracker for the given descriptor, creating it if necessary.
+     *
+     * @param circuitBreakerDescriptor the descriptor identifying the circuit breaker
+     * @return the tracker or {@code null} if the method isn't annotated with {@link SlowCallThreshold}
+     */
+    public SlowCallTracker getSlowCallTrackerFor(CircuitBreakerDescriptor circuitBreakerDescriptor) {
+        SlowCallThreshold slowCallThreshold = circuitBreakerDescriptor.getCurrentMethod().getAnnotation(SlowCallThreshold.class);
+        if (slowCallThreshold == null) {
+            return null;
+        }
 
-        FailureThreshold failureThreshold = currentMethod.getAnnotation(FailureThreshold.class);
-        if (failureThreshold == null) {
-            failureThreshold = FailureThreshold.DEFAULT;
+        SlowCallTracker slowCallTracker = slowCallTrackerMap.get(circuitBreakerDescriptor.getKey());
+
+        if (slowCallTracker == null) {
+            slowCallTracker = slowCallTrackerMap.computeIfAbsent(circuitBreakerDescriptor.getKey(), key -> new SlowCallTracker(
+                    slowCallThreshold.timeUnit().toNanos(slowCallThreshold.duration()),
+                    slowCallThreshold.rate(),
+                    slowCallThreshold.window()));
         }
+        return slowCallTracker;
+    }
 
-        SuccessThreshold successThreshold = currentMethod.getAnnotation(SuccessThreshold.class);
-        if (successThreshold == null) {
-            successThreshold = SuccessThreshold.DEFAULT;
+    /**
+     * Removes the circuit breaker (and the slow-call tracker) with the given key.
+     * A subsequent lookup creates a new (closed) circuit breaker.
+     *
+     * @param key the key of the circuit breaker
+     * @return {@code true} if a circuit breaker was registered for the key
+     */
+    public boolean removeCircuitBreaker(String key) {
+        slowCallTrackerMap.remove(key);
+        boolean removed = circuitBreakerMap.remove(key) != null;
+        return nativeCircuitBreakerMap.remove(key) != null || removed;
+    }
+
+    /**
+     * Returns the engine explicitly configured via {@link OverloadProtection} on the method
+     * (or its class).
+     *
+     * @param currentMethod the protected method
+     * @return the configured engine or {@link OverloadProtection.Engine#DEFAULT}
+     */
+    public static OverloadProtection.Engine getEngine(Method currentMethod) {
+        OverloadProtection overloadProtection = currentMethod.getAnnotation(OverloadProtection.class);
+        if (overloadProtection == null) {
+            overloadProtection = currentMethod.getDeclaringClass().getAnnotation(OverloadProtection.class);
         }
+        return overloadProtection != null ? overloadProtection.engine() : OverloadProtection.Engine.DEFAULT;
+    }
 
-        CircuitOpenDelay circuitOpenDelay = currentMethod.getAnnotation(CircuitOpenDelay.class);
-        if (circuitOpenDelay == null) {
-            circuitOpenDelay = CircuitOpenDelay.DEFAULT;
+    private NativeCircuitBreaker buildNativeCircuitBreaker(CircuitBreakerDescriptor circuitBreakerDescriptor) {
+        Method currentMethod = circuitBreakerDescriptor.getCurrentMethod();
+        FailureThreshold failureThreshold = getFailureThreshold(currentMethod);
+        SuccessThreshold successThreshold = getSuccessThreshold(currentMethod);
+        CircuitOpenDelay circuitOpenDelay = getCircuitOpenDelay(currentMethod);
+
+        String key = circuitBreakerDescriptor.getKey();
+        long delayNanos = circuitOpenDelay.timeUnit().toNanos(circuitOpenDelay.delay());
+        Consumer<CircuitState.Value> stateChangeListener = newState -> {
+            switch (newState) {
+                case OPEN:
+                    broadcastOpenCircuit(key);
+                    break;
+                case HALF_OPEN:
+                    broadcastHalfOpenCircuit(key);
+                    break;
+                default:
+                    broadcastCloseCircuit(key);
+            }
+        };
+
+        if (failureThreshold.period() > 0) {
+            TimedFailureWindow timedFailureWindow = TimedFailureWindow.of(
+                    failureThreshold.periodUnit().toNanos(failureThreshold.period()),
+                    failureThreshold.failures(),
+                    failureThreshold.executions());
+            return new NativeCircuitBreaker(timedFailureWindow, successThreshold.value(), delayNanos, stateChangeListener);
         }
 
+        return new NativeCircuitBreaker(
+                failureThreshold.failures(),
+                failureThreshold.executions(),
+                successThreshold.value(),
+                delayNanos,
+                stateChangeListener);
+    }
+
+    private CircuitBreaker<Object> buildCircuitBreaker(CircuitBreakerDescriptor circuitBreakerDescriptor) {
+        Method currentMethod = circuitBreakerDescriptor.getCurrentMethod();
+        FailureThreshold failureThreshold = getFailureThreshold(currentMethod);
+        SuccessThreshold successThreshold = getSuccessThreshold(currentMethod);
+        CircuitOpenDelay circuitOpenDelay = getCircuitOpenDelay(currentMethod);
+
         String key = circuitBreakerDescriptor.getKey();
 
-        circuitBreaker = CircuitBreaker.<Object>builder()
-                .withFailureThreshold(failureThreshold.failures(), failureThreshold.executions())
+        CircuitBreakerBuilder<Object> circuitBreakerBuilder = CircuitBreaker.<Object>builder();
+        if (failureThreshold.period() > 0) {
+            //same failure rate as the native engine (Failsafe also uses a bucketed window)
+            circuitBreakerBuilder.withFailureRateThreshold(
+                    TimedFailureWindow.toFailureRate(failureThreshold.failures(), failureThreshold.executions()),
+                    failureThreshold.executions(),
+                    Duration.of(failureThreshold.period(), failureThreshold.periodUnit().toChronoUnit()));
+        } else {
+            circuitBreakerBuilder.withFailureThreshold(failureThreshold.failures(), failureThreshold.executions());
+        }
+
+        return circuitBreakerBuilder
                 .withSuccessThreshold(successThreshold.value())
                 .withDelay(Duration.of(circuitOpenDelay.delay(), circuitOpenDelay.timeUnit().toChronoUnit()))
                 .onOpen(e -> broadcastOpenCircuit(key))
                 .onHalfOpen(e -> broadcastHalfOpenCircuit(key))
                 .onClose(e -> broadcastCloseCircuit(key))
                 .build();
+    }
 
-        circuitBreakerMap.put(key, circuitBreaker);
+    private static FailureThreshold getFailureThreshold(Method currentMethod) {
+        FailureThreshold failureThreshold = currentMethod.getAnnotation(FailureThreshold.class);
+        if (failureThreshold == null) {
+            failureThreshold = FailureThreshold.DEFAULT;
+        }
+        return failureThreshold;
+    }
 
-        return circuitBreaker;
+    private static SuccessThreshold getSuccessThreshold(Method currentMethod) {
+        SuccessThreshold successThreshold = currentMethod.getAnnotation(SuccessThreshold.class);
+        if (successThreshold == null) {
+            successThreshold = SuccessThreshold.DEFAULT;
+        }
+        return successThreshold;
+    }
+
+    private static CircuitOpenDelay getCircuitOpenDelay(Method currentMethod) {
+        CircuitOpenDelay circuitOpenDelay = currentMethod.getAnnotation(CircuitOpenDelay.class);
+        if (circuitOpenDelay == null) {
+            circuitOpenDelay = CircuitOpenDelay.DEFAULT;
+        }
+        return circuitOpenDelay;
     }
 
     private void broadcastOpenCircuit(String key) {
+        //slow calls before the recovery mustn't count towards the slow-call rate of the closed circuit
+        SlowCallTracker slowCallTracker = slowCallTrackerMap.get(key);
+        if (slowCallTracker != null) {
+            slowCallTracker.reset();
+        }
         circuitOpenBroadcaster.fire(new CircuitEvent(key, CircuitState.Value.OPEN));
     }
 
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.api.ConcurrencyGauge;
+
+/**
+ * Limits the number of concurrent executions of a protected method.
+ *
+ * <p>Implementations: {@link Bulkhead} (static limit) and {@link AdaptiveConcurrencyLimiter}
+ * (limit derived from the observed latencies).</p>
+ */
+public interface ConcurrencyLimiter extends ConcurrencyGauge {
+
+    /**
+     * Tries to acquire a permit. Every acquired permit has to be released via {@link #release(long, CallOutcome)}.
+     *
+     * @return {@code true} if the execution is permitted
+     */
+    boolean tryAcquire();
+
+    /**
+     * Releases a permit acquired via {@link #tryAcquire()}.
+     *
+     * @param durationNanos the duration of the call
+     * @param outcome       the outcome of the call ({@link CallOutcome#REJECTED} if the circuit rejected it)
+     */
+    void release(long durationNanos, CallOutcome outcome);
+}
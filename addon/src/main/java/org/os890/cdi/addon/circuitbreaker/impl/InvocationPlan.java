@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import dev.failsafe.CircuitBreaker;
+import dev.failsafe.Failsafe;
+import dev.failsafe.FailsafeExecutor;
+import dev.failsafe.Timeout;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+
+import java.lang.reflect.Method;
+
+/**
+ * Pre-computed description of how a protected method gets invoked.
+ *
+ * <p>A plan is built once per {@link Method} by the {@link InvocationPlanCache},
+ * so the interceptor doesn't need to build keys, evaluate annotations or create
+ * Failsafe policies per call. Apart from the (approximate) time of the latest
+ * invocation, which is used for the idle eviction, a plan is immutable.</p>
+ */
+public class InvocationPlan {
+
+    private final String key;
+    private final Method currentMethod;
+    private final CircuitBreaker<Object> circuitBreaker;
+    private final NativeCircuitBreaker nativeCircuitBreaker;
+    private final SlowCallTracker slowCallTracker;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final Timeout<Object> timeout;
+    private final long timeoutNanos;
+    private final FailsafeExecutor<Object> failsafeExecutor;
+    private final boolean collectMetrics;
+    private final int methodId;
+    private final boolean fireProtectedCallEvent;
+    private final long filterMethodsFasterThanNanos;
+    private final RejectionMode rejectionMode;
+    private final String rejectionMessage;
+    private final ServiceOverloadedException preallocatedRejection;
+    private final String concurrencyLimitRejectionMessage;
+    private final ServiceOverloadedException preallocatedConcurrencyLimitRejection;
+    private final String rateLimitRejectionMessage;
+    private final ServiceOverloadedException preallocatedRateLimitRejection;
+
+    private volatile long lastInvocation = System.currentTimeMillis();
+
+    /**
+     * Creates a new invocation plan.
+     *
+     * @param key                          the unique key of the protected method
+     * @param currentMethod                the protected method
+     * @param circuitBreaker               the Failsafe circuit breaker of the method (or {@code null})
+     * @param nativeCircuitBreaker         the native circuit breaker of the method (or {@code null})
+     * @param slowCallTracker              the slow-call tracker of the method (or {@code null})
+     * @param concurrencyLimiter           the concurrency limit of the method (or {@code null})
+     * @param rateLimiter                  the rate limit of the method (or {@code null})
+     * @param timeout                      the timeout policy derived from {@code @ExecutionFailure}
+     * @param collectMetrics               {@code true} if metrics should be collected for the method
+     * @param methodId                     the dense id of the method (see {@code MetricsStorage#registerKey})
+     * @param fireProtectedCallEvent       {@code true} if a {@code ProtectedCallEvent} should be fired for recorded calls
+     * @param filterMethodsFasterThanNanos the durations of successful calls up to this duration (in nanoseconds)
+     *                                     don't get recorded by the metrics (the calls just get counted)
+     * @param rejectionMode                the way a {@link ServiceOverloadedException} gets created for rejected calls
+     */
+    public InvocationPlan(String key,
+                          Method currentMethod,
+                          CircuitBreaker<Object> circuitBreaker,
+                          NativeCircuitBreaker nativeCircuitBreaker,
+                          SlowCallTracker slowCallTracker,
+                          ConcurrencyLimiter concurrencyLimiter,
+                          TokenBucketRateLimiter rateLimiter,
+                          Timeout<Object> timeout,
+                          boolean collectMetrics,
+                          int methodId,
+                          boolean fireProtectedCallEvent,
+                          long filterMethodsFasterThanNanos,
+                          RejectionMode rejectionMode) {
+        this.key = key;
+        this.currentMethod = currentMethod;
+        this.circuitBreaker = circuitBreaker;
+        this.nativeCircuitBreaker = nativeCircuitBreaker;
+        this.slowCallTracker = slowCallTracker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.rateLimiter = rateLimiter;
+        this.timeout = timeout;
+        this.timeoutNanos = timeout.getConfig().getTimeout().toNanos();
+        //executors are immutable and thread-safe
+        this.failsafeExecutor = circuitBreaker != null ? Failsafe.with(circuitBreaker, timeout) : null;
+        this.collectMetrics = collectMetrics;
+        this.methodId = methodId;
+        this.fireProtectedCallEvent = fireProtectedCallEvent;
+        this.filterMethodsFasterThanNanos = filterMethodsFasterThanNanos;
+        this.rejectionMode = rejectionMode;
+        this.rejectionMessage = "circuit is open for " + key;
+        this.preallocatedRejection = rejectionMode == RejectionMode.PREALLOCATED ?
+                new ServiceOverloadedException(rejectionMessage, false) : null;
+        this.concurrencyLimitRejectionMessage = "max. concurrent calls exceeded for " + key;
+        this.preallocatedConcurrencyLimitRejection = rejectionMode == RejectionMode.PREALLOCATED && concurrencyLimiter != null ?
+                new ServiceOverloadedException(concurrencyLimitRejectionMessage, false) : null;
+        this.rateLimitRejectionMessage = "rate limit exceeded for " + key;
+        this.preallocatedRateLimitRejection = rejectionMode == RejectionMode.PREALLOCATED && rateLimiter != null ?
+                new ServiceOverloadedException(rateLimitRejectionMessage, false) : null;
+    }
+
+    /**
+     * Returns the unique key of the protected method.
+     *
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the protected method.
+     *
+     * @return the current method
+     */
+    public Method getCurrentMethod() {
+        return currentMethod;
+    }
+
+    /**
+     * Returns the Failsafe circuit breaker of the protected method.
+     *
+     * @return the circuit breaker or {@code null} if the method uses the native engine
+     */
+    public CircuitBreaker<Object> getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the native circuit breaker of the protected method.
+     *
+     * @return the circuit breaker or {@code null} if the method uses Failsafe
+     */
+    public NativeCircuitBreaker getNativeCircuitBreaker() {
+        return nativeCircuitBreaker;
+    }
+
+    /**
+     * Returns {@code true} if the circuit of the protected method is closed (independent of the engine).
+     *
+     * @return {@code true} if the circuit is closed
+     */
+    public boolean isCircuitClosed() {
+        if (nativeCircuitBreaker != null) {
+            return nativeCircuitBreaker.getState() == CircuitState.Value.CLOSED;
+        }
+        return circuitBreaker.isClosed();
+    }
+
+    /**
+     * Returns the slow-call tracker of the protected method.
+     *
+     * @return the tracker or {@code null} if the method isn't annotated with {@code @SlowCallThreshold}
+     */
+    public SlowCallTracker getSlowCallTracker() {
+        return slowCallTracker;
+    }
+
+    /**
+     * Returns the concurrency limit of the protected method.
+     *
+     * @return the limiter or {@code null} if the method isn't annotated with {@code @MaxConcurrentCalls}
+     * or {@code @AdaptiveConcurrencyLimit}
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Returns the rate limit of the protected method.
+     *
+     * @return the rate limiter or {@code null} if the method isn't annotated with {@code @RateLimit}
+     */
+    public TokenBucketRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Returns the timeout policy of the protected method.
+     *
+     * @return the timeout policy
+     */
+    public Timeout<Object> getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the timeout of the protected method.
+     *
+     * @return the timeout in nanoseconds
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Returns the Failsafe executor which combines the circuit breaker and the timeout policy.
+     *
+     * @return the failsafe executor or {@code null} if the method uses the native engine
+     */
+    public FailsafeExecutor<Object> getFailsafeExecutor() {
+        return failsafeExecutor;
+    }
+
+    /**
+     * Returns whether metrics should be collected for the protected method.
+     *
+     * @return {@code true} to collect metrics
+     */
+    public boolean isCollectMetrics() {
+        return collectMetrics;
+    }
+
+    /**
+     * Returns the dense id of the protected method, which is used instead of the key on the hot path
+     * (e.g. for recording calls in the metrics buffer).
+     *
+     * @return the id
+     */
+    public int getMethodId() {
+        return methodId;
+    }
+
+    /**
+     * Returns whether a {@code ProtectedCallEvent} should be fired for recorded calls.
+     *
+     * @return {@code true} to fire the event
+     */
+    public boolean isFireProtectedCallEvent() {
+        return fireProtectedCallEvent;
+    }
+
+    /**
+     * Returns the threshold in nanoseconds up to which the durations of successful calls aren't recorded
+     * by the metrics (the calls just get counted).
+     *
+     * @return the threshold in nanoseconds
+     */
+    public long getFilterMethodsFasterThanNanos() {
+        return filterMethodsFasterThanNanos;
+    }
+
+    /**
+     * Returns the exception for a call which gets rejected because the circuit is open.
+     *
+     * @param cause the cause of the rejection (just used for {@link RejectionMode#FULL})
+     * @return the exception to throw
+     */
+    public ServiceOverloadedException createRejection(Throwable cause) {
+        if (preallocatedRejection != null) {
+            return preallocatedRejection;
+        }
+        if (rejectionMode == RejectionMode.FULL) {
+            return cause != null ? new ServiceOverloadedException(cause) : new ServiceOverloadedException(rejectionMessage);
+        }
+        return new ServiceOverloadedException(rejectionMessage, false);
+    }
+
+    /**
+     * Returns the exception for a call which gets rejected because the concurrency limit is reached.
+     *
+     * @return the exception to throw
+     */
+    public ServiceOverloadedException createConcurrencyLimitRejection() {
+        return createLimitRejection(concurrencyLimitRejectionMessage, preallocatedConcurrencyLimitRejection);
+    }
+
+    /**
+     * Returns the exception for a call which gets rejected because the rate limit is reached.
+     *
+     * @return the exception to throw
+     */
+    public ServiceOverloadedException createRateLimitRejection() {
+        return createLimitRejection(rateLimitRejectionMessage, preallocatedRateLimitRejection);
+    }
+
+    private ServiceOverloadedException createLimitRejection(String message, ServiceOverloadedException preallocated) {
+        if (preallocated != null) {
+            return preallocated;
+        }
+        return new ServiceOverloadedException(message, rejectionMode == RejectionMode.FULL);
+    }
+
+    /**
+     * Marks the plan as used. The timestamp gets updated at most once per second
+     * to avoid a volatile write (and cache-line contention) per call.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void markInvoked(long now) {
+        if (now - lastInvocation >= 1000) {
+            lastInvocation = now;
+        }
+    }
+
+    /**
+     * Returns the (approximate) time of the latest invocation.
+     *
+     * @return the time in milliseconds
+     */
+    public long getLastInvocation() {
+        return lastInvocation;
+    }
+
+    /**
+     * Enumeration of the supported ways to create a {@link ServiceOverloadedException} for rejected calls.
+     */
+    public enum RejectionMode {
+        /** A new exception without stack trace per rejected call. */
+        STACKLESS,
+        /** One shared exception (without stack trace) per protected method. */
+        PREALLOCATED,
+        /** A new exception with full stack trace per rejected call. */
+        FULL
+    }
+}
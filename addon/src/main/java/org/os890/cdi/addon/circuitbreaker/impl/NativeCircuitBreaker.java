@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free circuit breaker which keeps its whole state in a single packed {@code long}.
+ *
+ * <p>Layout of the packed state (the upper 2 bits always contain the state):</p>
+ * <ul>
+ *   <li>{@code CLOSED}: bits 0-31 failure ring (1 = failed execution), bits 32-37 ring position</li>
+ *   <li>{@code OPEN}: bits 0-61 time (in nanoseconds relative to the creation of the breaker)
+ *   at which the circuit may transition to half-open</li>
+ *   <li>{@code HALF_OPEN}: bits 0-15 successful trial executions, bits 16-31 acquired trial permits</li>
+ * </ul>
+ *
+ * <p>Every transition is a single CAS, recording a successful execution doesn't allocate.
+ * The failure window is limited to {@link #MAX_EXECUTIONS} executions. Alternatively a
+ * {@link TimedFailureWindow} (failure rate within a period) replaces the failure ring of the closed state.</p>
+ */
+public class NativeCircuitBreaker {
+
+    /** Max. supported size of the failure window. */
+    public static final int MAX_EXECUTIONS = 32;
+
+    private static final long STATE_CLOSED = 0L;
+    private static final long STATE_OPEN = 1L;
+    private static final long STATE_HALF_OPEN = 2L;
+    private static final int STATE_SHIFT = 62;
+    private static final long PAYLOAD_MASK = (1L << STATE_SHIFT) - 1;
+
+    private static final long RING_MASK = 0xFFFFFFFFL;
+    private static final int POSITION_SHIFT = 32;
+    private static final long SIX_BIT_MASK = 0x3FL;
+
+    private static final int PERMIT_SHIFT = 16;
+    private static final long SIXTEEN_BIT_MASK = 0xFFFFL;
+
+    private final AtomicLong packedState = new AtomicLong(STATE_CLOSED << STATE_SHIFT);
+    private final long epoch = System.nanoTime();
+
+    private final int failureThreshold;
+    private final int executionWindow;
+    private final int successThreshold;
+    private final long delayNanos;
+    private final TimedFailureWindow timedFailureWindow;
+    private final Consumer<CircuitState.Value> stateChangeListener;
+
+    /**
+     * Creates a new (closed) circuit breaker.
+     *
+     * @param failureThreshold    the number of failures within the window which opens the circuit
+     * @param executionWindow     the number of executions of the window (max. {@link #MAX_EXECUTIONS})
+     * @param successThreshold    the number of successful trial executions which closes the circuit
+     * @param delayNanos          the time the circuit stays open
+     * @param stateChangeListener gets notified after every state transition
+     */
+    public NativeCircuitBreaker(int failureThreshold,
+                                int executionWindow,
+                                int successThreshold,
+                                long delayNanos,
+                                Consumer<CircuitState.Value> stateChangeListener) {
+        if (executionWindow < 1 || executionWindow > MAX_EXECUTIONS) {
+            throw new IllegalArgumentException("the execution window has to be between 1 and " + MAX_EXECUTIONS);
+        }
+        this.failureThreshold = failureThreshold;
+        this.executionWindow = executionWindow;
+        this.successThreshold = successThreshold;
+        this.delayNanos = delayNanos;
+        this.timedFailureWindow = null;
+        this.stateChangeListener = stateChangeListener;
+    }
+
+    /**
+     * Creates a new (closed) circuit breaker with a time-based failure window.
+     *
+     * @param timedFailureWindow  the failure window of the closed circuit
+     * @param successThreshold    the number of successful trial executions which closes the circuit
+     * @param delayNanos          the time the circuit stays open
+     * @param stateChangeListener gets notified after every state transition
+     */
+    public NativeCircuitBreaker(TimedFailureWindow timedFailureWindow,
+                                int successThreshold,
+                                long delayNanos,
+                                Consumer<CircuitState.Value> stateChangeListener) {
+        this.failureThreshold = 0;
+        this.executionWindow = 0;
+        this.successThreshold = successThreshold;
+        this.delayNanos = delayNanos;
+        this.timedFailureWindow = timedFailureWindow;
+        this.stateChangeListener = stateChangeListener;
+    }
+
+    /**
+     * Tries to acquire a permit for an execution. Every acquired permit has to be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return {@code true} if the execution is permitted
+     */
+    public boolean tryAcquirePermit() {
+        while (true) {
+            long current = packedState.get();
+            long state = current >>> STATE_SHIFT;
+
+            if (state == STATE_CLOSED) {
+                return true;
+            }
+
+            if (state == STATE_OPEN) {
+                if (now() < (current & PAYLOAD_MASK)) {
+                    return false;
+                }
+                //the first permit of the half-open state gets acquired by the transition
+                if (packedState.compareAndSet(current, (STATE_HALF_OPEN << STATE_SHIFT) | (1L << PERMIT_SHIFT))) {
+                    stateChangeListener.accept(CircuitState.Value.HALF_OPEN);
+                    return true;
+                }
+                continue;
+            }
+
+            long permits = (current >>> PERMIT_SHIFT) & SIXTEEN_BIT_MASK;
+            if (permits >= successThreshold) {
+                return false;
+            }
+            if (packedState.compareAndSet(current, current + (1L << PERMIT_SHIFT))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records a successful execution.
+     */
+    public void recordSuccess() {
+        record(false);
+    }
+
+    /**
+     * Records a failed execution.
+     */
+    public void recordFailure() {
+        record(true);
+    }
+
+    /**
+     * Opens the circuit (independent of the current state).
+     */
+    public void open() {
+        while (true) {
+            long current = packedState.get();
+
+            if (packedState.compareAndSet(current, createOpenState())) {
+                if (current >>> STATE_SHIFT != STATE_OPEN) {
+                    stateChangeListener.accept(CircuitState.Value.OPEN);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the current state of the circuit.
+     *
+     * @return the circuit state
+     */
+    public CircuitState.Value getState() {
+        long state = packedState.get() >>> STATE_SHIFT;
+
+        if (state == STATE_CLOSED) {
+            return CircuitState.Value.CLOSED;
+        }
+        if (state == STATE_OPEN) {
+            return CircuitState.Value.OPEN;
+        }
+        return CircuitState.Value.HALF_OPEN;
+    }
+
+    /**
+     * Returns {@code true} if the circuit is open and the open delay hasn't elapsed yet.
+     * In that case {@link #tryAcquirePermit()} would reject the execution.
+     *
+     * @return {@code true} if executions get rejected
+     */
+    public boolean isRejecting() {
+        long current = packedState.get();
+        return current >>> STATE_SHIFT == STATE_OPEN && now() < (current & PAYLOAD_MASK);
+    }
+
+    /**
+     * Returns the number of failures within the current window of the closed circuit.
+     *
+     * @return the failure count (or {@code 0} if the circuit isn't closed)
+     */
+    public int getFailureCount() {
+        long current = packedState.get();
+
+        if (current >>> STATE_SHIFT != STATE_CLOSED) {
+            return 0;
+        }
+        if (timedFailureWindow != null) {
+            return (int) Math.min(Integer.MAX_VALUE, timedFailureWindow.getFailureCount(now()));
+        }
+        return Long.bitCount(current & RING_MASK);
+    }
+
+    private void record(boolean failure) {
+        while (true) {
+            long current = packedState.get();
+            long state = current >>> STATE_SHIFT;
+
+            if (state == STATE_CLOSED && timedFailureWindow != null) {
+                //the payload of the closed state isn't used - the call gets recorded exactly once
+                if (timedFailureWindow.record(failure, now())) {
+                    openClosedCircuit();
+                }
+                return;
+            }
+
+            if (state == STATE_CLOSED) {
+                long ring = current & RING_MASK;
+                long position = (current >>> POSITION_SHIFT) & SIX_BIT_MASK;
+
+                long bit = 1L << position;
+                ring = failure ? ring | bit : ring & ~bit;
+
+                if (failure && Long.bitCount(ring) >= failureThreshold) {
+                    if (packedState.compareAndSet(current, createOpenState())) {
+                        stateChangeListener.accept(CircuitState.Value.OPEN);
+                        return;
+                    }
+                    continue;
+                }
+
+                position = position + 1 == executionWindow ? 0 : position + 1;
+
+                long updated = ring | (position << POSITION_SHIFT);
+                if (current == updated || packedState.compareAndSet(current, updated)) {
+                    return;
+                }
+                continue;
+            }
+
+            if (state == STATE_OPEN) {
+                return; //execution was started before the circuit got opened (e.g. by a parallel thread)
+            }
+
+            //half-open
+            if (failure) {
+                if (packedState.compareAndSet(current, createOpenState())) {
+                    stateChangeListener.accept(CircuitState.Value.OPEN);
+                    return;
+                }
+                continue;
+            }
+
+            long successes = (current & SIXTEEN_BIT_MASK) + 1;
+            if (successes >= successThreshold) {
+                if (timedFailureWindow != null) {
+                    timedFailureWindow.reset(); //failures before the recovery mustn't re-open the circuit
+                }
+                if (packedState.compareAndSet(current, STATE_CLOSED << STATE_SHIFT)) {
+                    stateChangeListener.accept(CircuitState.Value.CLOSED);
+                    return;
+                }
+                continue;
+            }
+            //keep the permit - the number of trial executions is limited by the success threshold
+            if (packedState.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void openClosedCircuit() {
+        while (true) {
+            long current = packedState.get();
+
+            if (current >>> STATE_SHIFT != STATE_CLOSED) {
+                return; //opened by a parallel thread
+            }
+            if (packedState.compareAndSet(current, createOpenState())) {
+                stateChangeListener.accept(CircuitState.Value.OPEN);
+                return;
+            }
+        }
+    }
+
+    private long createOpenState() {
+        return (STATE_OPEN << STATE_SHIFT) | ((now() + delayNanos) & PAYLOAD_MASK);
+    }
+
+    private long now() {
+        return System.nanoTime() - epoch;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import org.apache.deltaspike.core.api.config.ConfigResolver;
+import org.os890.cdi.addon.circuitbreaker.api.AdaptiveConcurrencyLimit;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitOpenDelay;
+import org.os890.cdi.addon.circuitbreaker.api.ExecutionFailure;
+import org.os890.cdi.addon.circuitbreaker.api.FailureThreshold;
+import org.os890.cdi.addon.circuitbreaker.api.MaxConcurrentCalls;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+import org.os890.cdi.addon.circuitbreaker.api.RateLimit;
+import org.os890.cdi.addon.circuitbreaker.api.SlowCallThreshold;
+import org.os890.cdi.addon.circuitbreaker.api.SuccessThreshold;
+
+import jakarta.enterprise.context.spi.CreationalContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.spi.AfterDeploymentValidation;
+import jakarta.enterprise.inject.spi.AnnotatedMethod;
+import jakarta.enterprise.inject.spi.AnnotatedType;
+import jakarta.enterprise.inject.spi.Bean;
+import jakarta.enterprise.inject.spi.BeanManager;
+import jakarta.enterprise.inject.spi.DefinitionException;
+import jakarta.enterprise.inject.spi.Extension;
+import jakarta.enterprise.inject.spi.ProcessAnnotatedType;
+import jakarta.enterprise.inject.spi.ProcessManagedBean;
+import jakarta.enterprise.inject.spi.WithAnnotations;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Portable extension which finds all methods protected via {@link OverloadProtection},
+ * validates their circuit-breaker annotations and (optionally) builds their
+ * {@link InvocationPlan}s (incl. the circuit breakers) during the bootstrapping process.
+ *
+ * <p>That avoids the reflection- and builder-overhead for the first call of every
+ * protected method. To disable the eager initialization see the DeltaSpike config key:
+ * {@code OverloadProtection_eagerInit} (default: {@code true}).</p>
+ */
+public class OverloadProtectionExtension implements Extension {
+
+    //found during the type-scanning, but only used if the type turns out to be a managed bean
+    private final Map<Class<?>, List<Method>> protectedMethodCandidates = new ConcurrentHashMap<>();
+
+    private final Set<Method> protectedMethods = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Collects the protected methods of types which use {@link OverloadProtection}.
+     *
+     * @param processAnnotatedType the event of the scanned type
+     * @param <T>                  the scanned type
+     */
+    protected <T> void findProtectedMethods(
+            @Observes @WithAnnotations(OverloadProtection.class) ProcessAnnotatedType<T> processAnnotatedType) {
+        AnnotatedType<T> annotatedType = processAnnotatedType.getAnnotatedType();
+        boolean protectedType = annotatedType.isAnnotationPresent(OverloadProtection.class);
+
+        List<Method> result = new ArrayList<>();
+        for (AnnotatedMethod<? super T> annotatedMethod : annotatedType.getMethods()) {
+            Method method = annotatedMethod.getJavaMember();
+
+            if (!isInterceptable(method)) {
+                continue;
+            }
+            if (protectedType || annotatedMethod.isAnnotationPresent(OverloadProtection.class)) {
+                result.add(method);
+            }
+        }
+
+        if (!result.isEmpty()) {
+            protectedMethodCandidates.put(annotatedType.getJavaClass(), result);
+        }
+    }
+
+    /**
+     * Validates the circuit-breaker annotations of the protected methods of a managed bean.
+     *
+     * @param processManagedBean the event of the managed bean
+     * @param <T>                the type of the bean
+     */
+    protected <T> void validateProtectedMethods(@Observes ProcessManagedBean<T> processManagedBean) {
+        List<Method> candidates = protectedMethodCandidates.remove(processManagedBean.getAnnotatedBeanClass().getJavaClass());
+
+        if (candidates == null) {
+            return;
+        }
+
+        for (Method method : candidates) {
+            String error = validate(method);
+
+            if (error != null) {
+                processManagedBean.addDefinitionError(new DefinitionException(
+                        "Invalid configuration of " + InvocationPlanCache.createKey(method) + ": " + error));
+            } else {
+                protectedMethods.add(method);
+            }
+        }
+    }
+
+    /**
+     * Builds the invocation plans of all protected methods if the eager initialization is enabled.
+     *
+     * @param afterDeploymentValidation the lifecycle event
+     * @param beanManager               the current bean manager
+     */
+    protected void initInvocationPlans(@Observes AfterDeploymentValidation afterDeploymentValidation, BeanManager beanManager) {
+        protectedMethodCandidates.clear();
+
+        String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                OverloadProtection.class.getSimpleName() + "_eagerInit", "true");
+
+        if (!Boolean.parseBoolean(configuredValue) || protectedMethods.isEmpty()) {
+            return;
+        }
+
+        Bean<?> bean = beanManager.resolve(beanManager.getBeans(InvocationPlanCache.class));
+        CreationalContext<?> creationalContext = beanManager.createCreationalContext(bean);
+        InvocationPlanCache invocationPlanCache =
+                (InvocationPlanCache) beanManager.getReference(bean, InvocationPlanCache.class, creationalContext);
+
+        for (Method method : protectedMethods) {
+            invocationPlanCache.getInvocationPlanFor(method);
+        }
+    }
+
+    /**
+     * Returns all validated protected methods.
+     *
+     * @return the protected methods
+     */
+    public Collection<Method> getProtectedMethods() {
+        return protectedMethods;
+    }
+
+    private static boolean isInterceptable(Method method) {
+        int modifiers = method.getModifiers();
+        return !Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers) && !Modifier.isFinal(modifiers) &&
+                !method.isSynthetic() && !method.isBridge() && method.getDeclaringClass() != Object.class;
+    }
+
+    private static String validate(Method method) {
+        FailureThreshold failureThreshold = method.getAnnotation(FailureThreshold.class);
+        if (failureThreshold != null) {
+            if (failureThreshold.failures() < 1) {
+                return "@FailureThreshold#failures has to be greater than 0";
+            }
+            if (failureThreshold.executions() < failureThreshold.failures()) {
+                return "@FailureThreshold#executions has to be greater than or equal to #failures";
+            }
+            if (failureThreshold.period() < 0) {
+                return "@FailureThreshold#period mustn't be negative";
+            }
+            if (failureThreshold.period() > 0 && failureThreshold.periodUnit().toMillis(failureThreshold.period()) < 1) {
+                return "@FailureThreshold#period has to be at least 1 millisecond";
+            }
+            if (CircuitBreakerProvider.getEngine(method) == OverloadProtection.Engine.NATIVE && failureThreshold.period() == 0 &&
+                    failureThreshold.executions() > NativeCircuitBreaker.MAX_EXECUTIONS) {
+                return "@FailureThreshold#executions is limited to " + NativeCircuitBreaker.MAX_EXECUTIONS + " for the native engine";
+            }
+        }
+
+        SuccessThreshold successThreshold = method.getAnnotation(SuccessThreshold.class);
+        if (successThreshold != null && successThreshold.value() < 1) {
+            return "@SuccessThreshold has to be greater than 0";
+        }
+
+        CircuitOpenDelay circuitOpenDelay = method.getAnnotation(CircuitOpenDelay.class);
+        if (circuitOpenDelay != null && circuitOpenDelay.delay() < 0) {
+            return "@CircuitOpenDelay#delay mustn't be negative";
+        }
+
+        SlowCallThreshold slowCallThreshold = method.getAnnotation(SlowCallThreshold.class);
+        if (slowCallThreshold != null) {
+            if (slowCallThreshold.duration() < 1) {
+                return "@SlowCallThreshold#duration has to be greater than 0";
+            }
+            if (slowCallThreshold.rate() < 1 || slowCallThreshold.rate() > 100) {
+                return "@SlowCallThreshold#rate has to be between 1 and 100";
+            }
+            if (slowCallThreshold.window() < 1 || slowCallThreshold.window() > SlowCallTracker.MAX_WINDOW) {
+                return "@SlowCallThreshold#window has to be between 1 and " + SlowCallTracker.MAX_WINDOW;
+            }
+        }
+
+        MaxConcurrentCalls maxConcurrentCalls = method.getAnnotation(MaxConcurrentCalls.class);
+        if (maxConcurrentCalls != null) {
+            if (maxConcurrentCalls.value() < 1) {
+                return "@MaxConcurrentCalls has to be greater than 0";
+            }
+            if (maxConcurrentCalls.maxWait() < 0) {
+                return "@MaxConcurrentCalls#maxWait mustn't be negative";
+            }
+        }
+
+        AdaptiveConcurrencyLimit adaptiveConcurrencyLimit = method.getAnnotation(AdaptiveConcurrencyLimit.class);
+        if (adaptiveConcurrencyLimit != null) {
+            if (maxConcurrentCalls != null) {
+                return "@AdaptiveConcurrencyLimit can't be combined with @MaxConcurrentCalls";
+            }
+            if (adaptiveConcurrencyLimit.minLimit() < 1 ||
+                    adaptiveConcurrencyLimit.initialLimit() < adaptiveConcurrencyLimit.minLimit() ||
+                    adaptiveConcurrencyLimit.maxLimit() < adaptiveConcurrencyLimit.initialLimit()) {
+                return "@AdaptiveConcurrencyLimit requires 1 <= #minLimit <= #initialLimit <= #maxLimit";
+            }
+            if (adaptiveConcurrencyLimit.latencyTolerance() <= 100) {
+                return "@AdaptiveConcurrencyLimit#latencyTolerance has to be greater than 100";
+            }
+        }
+
+        RateLimit rateLimit = method.getAnnotation(RateLimit.class);
+        if (rateLimit != null) {
+            if (rateLimit.permits() < 1) {
+                return "@RateLimit#permits has to be greater than 0";
+            }
+            if (rateLimit.period() < 1 || rateLimit.periodUnit().toNanos(rateLimit.period()) < rateLimit.permits()) {
+                return "@RateLimit#period has to be at least one nanosecond per permit";
+            }
+            if (rateLimit.maxWait() < 0) {
+                return "@RateLimit#maxWait mustn't be negative";
+            }
+        }
+
+        ExecutionFailure executionFailure = method.getAnnotation(ExecutionFailure.class);
+        if (executionFailure != null && executionFailure.after() < 1) {
+            return "@ExecutionFailure#after has to be greater than 0";
+        }
+        return null;
+    }
+}
@@ -21,14 +21,14 @@ package org.os890.cdi.addon.circuitbreaker.impl;
 
 import dev.failsafe.CircuitBreaker;
 import dev.failsafe.CircuitBreakerOpenException;
-import dev.failsafe.Failsafe;
 import dev.failsafe.FailsafeException;
-import dev.failsafe.Timeout;
-import org.apache.deltaspike.core.api.config.ConfigResolver;
-import org.os890.cdi.addon.circuitbreaker.api.ExecutionFailure;
+import dev.failsafe.TimeoutExceededException;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
 import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
 import org.os890.cdi.addon.circuitbreaker.api.ProtectedCallEvent;
 import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.impl.MetricsRecordBuffer;
 
 import jakarta.annotation.Priority;
 import jakarta.enterprise.event.Event;
@@ -38,38 +38,39 @@ import jakarta.interceptor.Interceptor;
 import jakarta.interceptor.InvocationContext;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
-import java.time.Duration;
 
 /**
  * CDI interceptor that wraps method invocations with a Failsafe
- * {@link CircuitBreaker} to protect against service overload.
+ * {@link CircuitBreaker} (or a {@link NativeCircuitBreaker}) to protect against service overload.
  *
  * <p>When the circuit is open, a {@link ServiceOverloadedException} is thrown.
- * Metrics are optionally collected and broadcast as CDI events.</p>
+ * By default the exception is created without a stack trace, so rejecting calls is cheap.
+ * See the DeltaSpike config key {@code OverloadProtection_rejectionMode}
+ * ({@code STACKLESS}, {@code PREALLOCATED} or {@code FULL}).
+ * Metrics (incl. the {@link CallOutcome} of every call) are optionally collected via the {@link MetricsRecordBuffer}
+ * (and broadcast as CDI events, if enabled).</p>
+ *
+ * <p>Methods with {@code @RateLimit} get a permit of their {@link TokenBucketRateLimiter} first.</p>
+ *
+ * <p>Methods with {@code @MaxConcurrentCalls} or {@code @AdaptiveConcurrencyLimit} get a permit of their
+ * {@link ConcurrencyLimiter} before the circuit gets checked. A call without permit is rejected (like for an open circuit),
+ * but doesn't affect the circuit. The duration and outcome of every permitted call get passed back to the limiter.</p>
+ *
+ * <p>Successful calls of methods with a {@code @SlowCallThreshold} are passed to their {@link SlowCallTracker},
+ * which decides if the circuit gets opened (like for failures).</p>
  */
 @Priority(1)
 @Interceptor
 @OverloadProtection
 public class OverloadProtectionInterceptor implements Serializable {
 
-    private static final long serialVersionUID = 14L;
-
-    private static Integer filterMethodsFasterThanMs; //additional perf. improvement to avoid metrics-overhead for very fast methods (leads to a ~30% better performance if all methods are faster)
+    private static final long serialVersionUID = 16L;
 
-    /**
-     * Default constructor that initialises the method-filter threshold from DeltaSpike configuration.
-     */
-    public OverloadProtectionInterceptor() {
-        if (filterMethodsFasterThanMs == null) {
-            String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
-                    OverloadProtection.class.getSimpleName() + "_filterMethodsFasterThanMs", "1");
-            filterMethodsFasterThanMs = Integer.parseInt(configuredValue);
-        }
-    }
+    @Inject
+    private InvocationPlanCache invocationPlanCache;
 
     @Inject
-    private CircuitBreakerProvider circuitBreakerProvider;
+    private MetricsRecordBuffer metricsRecordBuffer;
 
     @Inject
     private Event<ProtectedCallEvent> protectedCallBroadcaster;
@@ -83,39 +84,97 @@ public class OverloadProtectionInterceptor implements Serializable {
      */
     @AroundInvoke
     public Object execute(InvocationContext invocationContext) throws Exception {
+        InvocationPlan invocationPlan = invocationPlanCache.getInvocationPlanFor(invocationContext.getMethod());
+        TokenBucketRateLimiter rateLimiter = invocationPlan.getRateLimiter();
+
+        //before the concurrency limit - a call waiting for a rate permit mustn't block a concurrency permit
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            onCallRejected(invocationPlan);
+            throw invocationPlan.createRateLimitRejection();
+        }
+
+        ConcurrencyLimiter concurrencyLimiter = invocationPlan.getConcurrencyLimiter();
+
+        if (concurrencyLimiter == null) {
+            return executeWithCircuitBreaker(invocationContext, invocationPlan);
+        }
+
+        if (!concurrencyLimiter.tryAcquire()) {
+            onCallRejected(invocationPlan);
+            throw invocationPlan.createConcurrencyLimitRejection();
+        }
+
+        long start = System.nanoTime();
+        CallOutcome outcome = CallOutcome.EXCEPTION;
         try {
-            Method currentMethod = invocationContext.getMethod();
-            CircuitBreakerDescriptor circuitBreakerDescriptor = createDescriptor(currentMethod);
-            CircuitBreaker<Object> circuitBreaker = circuitBreakerProvider.getCircuitBreakerFor(circuitBreakerDescriptor);
+            Object result = executeWithCircuitBreaker(invocationContext, invocationPlan);
+            outcome = CallOutcome.SUCCESS;
+            return result;
+        } catch (ServiceOverloadedException e) {
+            outcome = CallOutcome.REJECTED;
+            throw e;
+        } catch (TimeoutExceededException e) {
+            outcome = CallOutcome.TIMEOUT;
+            throw e;
+        } finally {
+            concurrencyLimiter.release(System.nanoTime() - start, outcome);
+        }
+    }
 
-            ExecutionFailure executionFailure = currentMethod.getAnnotation(ExecutionFailure.class);
-            if (executionFailure == null) {
-                executionFailure = ExecutionFailure.DEFAULT;
-            }
+    private Object executeWithCircuitBreaker(InvocationContext invocationContext, InvocationPlan invocationPlan) throws Exception {
+        NativeCircuitBreaker nativeCircuitBreaker = invocationPlan.getNativeCircuitBreaker();
 
-            Timeout<Object> timeout = Timeout.<Object>builder(
-                    Duration.of(executionFailure.after(), executionFailure.timeUnit().toChronoUnit()))
-                    .build();
+        if (nativeCircuitBreaker != null) {
+            return executeWithNativeCircuitBreaker(invocationContext, invocationPlan, nativeCircuitBreaker);
+        }
 
-            return Failsafe.with(circuitBreaker, timeout).get(() -> {
-                long start = System.currentTimeMillis();
-                try {
-                    return invocationContext.proceed();
-                } finally {
-                    long duration = System.currentTimeMillis() - start;
+        //fast-fail without entering Failsafe (an open circuit transitions to half-open lazily, once the delay is over)
+        CircuitBreaker<Object> circuitBreaker = invocationPlan.getCircuitBreaker();
+        if (circuitBreaker.isOpen() && circuitBreaker.getRemainingDelay().toNanos() > 0) {
+            onCallRejected(invocationPlan);
+            throw invocationPlan.createRejection(null);
+        }
 
-                    if (duration > filterMethodsFasterThanMs) { //don't eval the optional annotation (@FilterMethodsFasterThan) here - to avoid an impact on perf. (~20%)
-                        OverloadProtection overloadProtection = currentMethod.getAnnotation(OverloadProtection.class);
+        SlowCallTracker slowCallTracker = invocationPlan.getSlowCallTracker();
+        if (slowCallTracker != null) {
+            return executeWithSlowCallTracker(invocationContext, invocationPlan, circuitBreaker, slowCallTracker);
+        }
+        return executeWithFailsafe(invocationContext, invocationPlan);
+    }
+
+    private Object executeWithSlowCallTracker(InvocationContext invocationContext,
+                                              InvocationPlan invocationPlan,
+                                              CircuitBreaker<Object> circuitBreaker,
+                                              SlowCallTracker slowCallTracker) throws Exception {
+        //an open circuit (with an elapsed delay) transitions to half-open within Failsafe
+        boolean trialExecution = !circuitBreaker.isClosed();
+        //includes the (small) overhead of Failsafe - only successful calls get passed to the tracker
+        long start = System.nanoTime();
+        Object result = executeWithFailsafe(invocationContext, invocationPlan);
 
-                        if (overloadProtection != null && overloadProtection.collectMetrics()) {
-                            protectedCallBroadcaster.fire(
-                                    new ProtectedCallEvent(circuitBreakerDescriptor.getKey(), currentMethod, duration));
-                        }
-                    }
+        if (slowCallTracker.record(System.nanoTime() - start, trialExecution)) {
+            circuitBreaker.open();
+        }
+        return result;
+    }
+
+    private Object executeWithFailsafe(InvocationContext invocationContext, InvocationPlan invocationPlan) throws Exception {
+        try {
+            return invocationPlan.getFailsafeExecutor().get(() -> {
+                invocationPlan.markInvoked(System.currentTimeMillis());
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    Object result = invocationContext.proceed();
+                    failed = false;
+                    return result;
+                } finally {
+                    onCallFinished(invocationPlan, System.nanoTime() - start, failed);
                 }
             });
         } catch (CircuitBreakerOpenException e) {
-            throw new ServiceOverloadedException(e);
+            onCallRejected(invocationPlan);
+            throw invocationPlan.createRejection(e);
         } catch (FailsafeException e) {
             Throwable cause = e.getCause();
 
@@ -126,18 +185,86 @@ public class OverloadProtectionInterceptor implements Serializable {
         }
     }
 
-    private CircuitBreakerDescriptor createDescriptor(Method currentMethod) {
-        StringBuilder keyBuilder = new StringBuilder(currentMethod.getDeclaringClass() + "#" + currentMethod.getName());
+    private Object executeWithNativeCircuitBreaker(InvocationContext invocationContext,
+                                                   InvocationPlan invocationPlan,
+                                                   NativeCircuitBreaker nativeCircuitBreaker) throws Exception {
+        if (!nativeCircuitBreaker.tryAcquirePermit()) {
+            onCallRejected(invocationPlan);
+            throw invocationPlan.createRejection(null);
+        }
+
+        boolean trialExecution = invocationPlan.getSlowCallTracker() != null &&
+                nativeCircuitBreaker.getState() != CircuitState.Value.CLOSED;
 
-        if (currentMethod.getParameterTypes().length > 0) {
-            for (Class<?> paramType : currentMethod.getParameterTypes()) {
-                keyBuilder.append("|").append(paramType.getName());
+        invocationPlan.markInvoked(System.currentTimeMillis());
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = invocationContext.proceed();
+        } catch (Throwable t) {
+            long durationNanos = System.nanoTime() - start;
+            nativeCircuitBreaker.recordFailure();
+            onCallFinished(invocationPlan, durationNanos, true);
+
+            //same as Failsafe: the timeout takes precedence over the exception of a timed-out execution
+            if (durationNanos > invocationPlan.getTimeoutNanos()) {
+                throw new TimeoutExceededException(invocationPlan.getTimeout());
             }
+            throw t;
+        }
+
+        long durationNanos = System.nanoTime() - start;
+        boolean timedOut = durationNanos > invocationPlan.getTimeoutNanos();
+        SlowCallTracker slowCallTracker = invocationPlan.getSlowCallTracker();
+
+        //the circuit gets updated before the metrics and events get published - an exception of an observer
+        //mustn't keep the permit of a trial execution
+        if (timedOut) {
+            nativeCircuitBreaker.recordFailure();
+        } else if (slowCallTracker != null && slowCallTracker.record(durationNanos, trialExecution)) {
+            //a slow call counts like a failure - the circuit opens instead of recording the success
+            nativeCircuitBreaker.open();
+        } else {
+            nativeCircuitBreaker.recordSuccess();
+        }
+        onCallFinished(invocationPlan, durationNanos, false);
+
+        //same as a Failsafe timeout without interruption: the result of a timed-out execution gets dropped
+        if (timedOut) {
+            throw new TimeoutExceededException(invocationPlan.getTimeout());
+        }
+        return result;
+    }
+
+    //measured via the monotonic System#nanoTime (not affected by adjustments of the wall-clock time)
+    private void onCallFinished(InvocationPlan invocationPlan, long durationNanos, boolean failed) {
+        if (!invocationPlan.isCollectMetrics()) {
+            return;
         }
 
-        String key = keyBuilder.toString();
+        //same as Failsafe: the timeout takes precedence over the result of the execution
+        CallOutcome outcome = durationNanos > invocationPlan.getTimeoutNanos() ? CallOutcome.TIMEOUT :
+                failed ? CallOutcome.EXCEPTION : CallOutcome.SUCCESS;
 
-        CircuitBreakerDescriptor circuitBreakerDescriptor = new CircuitBreakerDescriptor(key, currentMethod);
-        return circuitBreakerDescriptor;
+        //don't eval the optional annotation (@FilterMethodsFasterThan) here - to avoid an impact on perf. (~20%)
+        //every call gets counted (otherwise the outcome ratios would be skewed), just the duration of a fast
+        //successful call gets dropped
+        if (durationNanos <= invocationPlan.getFilterMethodsFasterThanNanos() && outcome == CallOutcome.SUCCESS) {
+            metricsRecordBuffer.offer(invocationPlan.getMethodId(), MetricsRecordBuffer.FILTERED_DURATION, outcome);
+        } else {
+            metricsRecordBuffer.offer(invocationPlan.getMethodId(), durationNanos / 1_000, outcome);
+
+            if (invocationPlan.isFireProtectedCallEvent()) {
+                protectedCallBroadcaster.fire(
+                        new ProtectedCallEvent(invocationPlan.getKey(), invocationPlan.getMethodId(),
+                                invocationPlan.getCurrentMethod(), durationNanos));
+            }
+        }
+    }
+
+    private void onCallRejected(InvocationPlan invocationPlan) {
+        if (invocationPlan.isCollectMetrics()) {
+            metricsRecordBuffer.offer(invocationPlan.getMethodId(), 0L, CallOutcome.REJECTED);
+        }
     }
 }
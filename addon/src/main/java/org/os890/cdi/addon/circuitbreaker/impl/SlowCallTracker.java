@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free count-based window of slow calls (see {@code @SlowCallThreshold}).
+ *
+ * <p>Same layout as the failure window of the {@link NativeCircuitBreaker}: bits 0-31 slow-call ring
+ * (1 = slow call), bits 32-37 ring position, bits 38-43 number of recorded calls.
+ * The tracker doesn't change the circuit itself - the caller opens the circuit
+ * (of either engine) if {@link #record(long, boolean)} returns {@code true}.</p>
+ */
+public class SlowCallTracker {
+
+    /** Max. supported size of the window. */
+    public static final int MAX_WINDOW = 32;
+
+    private static final long RING_MASK = 0xFFFFFFFFL;
+    private static final int POSITION_SHIFT = 32;
+    private static final int COUNT_SHIFT = 38;
+    private static final long SIX_BIT_MASK = 0x3FL;
+
+    private final AtomicLong packedState = new AtomicLong();
+
+    private final long slowCallThresholdNanos;
+    private final int rate;
+    private final int window;
+
+    /**
+     * Creates a new (empty) tracker.
+     *
+     * @param slowCallThresholdNanos calls taking at least this duration are slow
+     * @param rate                   the percentage of slow calls within the window which opens the circuit
+     * @param window                 the number of calls of the window (max. {@link #MAX_WINDOW})
+     */
+    public SlowCallTracker(long slowCallThresholdNanos, int rate, int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("window has to be between 1 and " + MAX_WINDOW);
+        }
+        if (rate < 1 || rate > 100) {
+            throw new IllegalArgumentException("rate has to be between 1 and 100");
+        }
+        this.slowCallThresholdNanos = slowCallThresholdNanos;
+        this.rate = rate;
+        this.window = window;
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @param durationNanos  the duration of the call
+     * @param trialExecution {@code true} if the call was a trial execution of a half-open circuit
+     * @return {@code true} if the circuit should be opened - either because the slow-call rate of the
+     * (full) window was reached (the window gets reset in this case) or because a trial execution was slow
+     */
+    public boolean record(long durationNanos, boolean trialExecution) {
+        boolean slow = durationNanos >= slowCallThresholdNanos;
+
+        if (trialExecution) {
+            return slow; //trial executions don't belong to the window of the closed circuit
+        }
+
+        while (true) {
+            long current = packedState.get();
+            long ring = current & RING_MASK;
+            long position = (current >>> POSITION_SHIFT) & SIX_BIT_MASK;
+            long count = (current >>> COUNT_SHIFT) & SIX_BIT_MASK;
+
+            long bit = 1L << position;
+            ring = slow ? ring | bit : ring & ~bit;
+
+            position = position + 1 == window ? 0 : position + 1;
+            count = Math.min(count + 1, window);
+
+            if (slow && count == window && Long.bitCount(ring) * 100L >= (long) rate * window) {
+                if (packedState.compareAndSet(current, 0L)) {
+                    return true;
+                }
+                continue;
+            }
+
+            long updated = ring | (position << POSITION_SHIFT) | (count << COUNT_SHIFT);
+            if (current == updated || packedState.compareAndSet(current, updated)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Clears the window, e.g. once the circuit got opened (for any reason), so that
+     * slow calls before the recovery don't count towards the rate of the closed circuit.
+     */
+    public void reset() {
+        packedState.set(0L);
+    }
+
+    /**
+     * Returns the number of slow calls within the current window.
+     *
+     * @return the slow-call count
+     */
+    public int getSlowCallCount() {
+        return Long.bitCount(packedState.get() & RING_MASK);
+    }
+
+    /**
+     * Returns the number of calls within the current window.
+     *
+     * @return the call count (max. the window size)
+     */
+    public int getCallCount() {
+        return (int) ((packedState.get() >>> COUNT_SHIFT) & SIX_BIT_MASK);
+    }
+
+    /**
+     * Returns the duration from which on a call is slow.
+     *
+     * @return the threshold in nanoseconds
+     */
+    public long getSlowCallThresholdNanos() {
+        return slowCallThresholdNanos;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free time-based failure window of the {@link NativeCircuitBreaker}.
+ *
+ * <p>The period is split into {@link #BUCKETS} buckets. Every bucket is a packed {@code long}:
+ * bits 40-63 bucket number (since the creation of the breaker), bits 20-39 calls, bits 0-19 failures.
+ * Recording a call is a single CAS on the current bucket (which gets reset lazily, once the period
+ * moved on); just failures sum up the buckets (constant effort) to check the threshold.
+ * If a bucket reaches the max. call count, calls and failures of the bucket get halved,
+ * which keeps the failure rate of the bucket.</p>
+ */
+public class TimedFailureWindow {
+
+    /** Number of buckets the period is split into. */
+    public static final int BUCKETS = 10;
+
+    private static final int STAMP_SHIFT = 40;
+    private static final long STAMP_MASK = 0xFFFFFFL;
+    private static final int CALLS_SHIFT = 20;
+    private static final long COUNT_MASK = 0xFFFFFL;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final long bucketNanos;
+    private final int failureRate;
+    private final int minCalls;
+
+    /**
+     * Creates a new (empty) window.
+     *
+     * @param periodNanos the length of the window
+     * @param failureRate the percentage of failed calls within the period which opens the circuit
+     * @param minCalls    the min. number of calls within the period before the failure rate gets evaluated
+     */
+    public TimedFailureWindow(long periodNanos, int failureRate, int minCalls) {
+        if (periodNanos < BUCKETS) {
+            throw new IllegalArgumentException("the period is too short");
+        }
+        if (failureRate < 1 || failureRate > 100) {
+            throw new IllegalArgumentException("the failure rate has to be between 1 and 100");
+        }
+        this.bucketNanos = periodNanos / BUCKETS;
+        this.failureRate = failureRate;
+        this.minCalls = Math.max(1, minCalls);
+    }
+
+    /**
+     * Creates a window with the failure rate of {@code failures} out of {@code executions} (rounded up to full percents)
+     * and {@code executions} as min. number of calls.
+     *
+     * @param periodNanos the length of the window
+     * @param failures    the number of failures
+     * @param executions  the number of executions
+     * @return the new window
+     */
+    public static TimedFailureWindow of(long periodNanos, int failures, int executions) {
+        return new TimedFailureWindow(periodNanos, toFailureRate(failures, executions), executions);
+    }
+
+    /**
+     * Converts a ratio of failures to a failure rate.
+     *
+     * @param failures   the number of failures
+     * @param executions the number of executions
+     * @return the failure rate in percent (rounded up)
+     */
+    public static int toFailureRate(int failures, int executions) {
+        return (int) Math.min(100, (failures * 100L + executions - 1) / executions);
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param failure  {@code true} if the call failed
+     * @param nowNanos  the current (monotonic, non-negative) time in nanoseconds
+     * @return {@code true} if the failure rate within the period (incl. this failure) reached the threshold
+     */
+    public boolean record(boolean failure, long nowNanos) {
+        long bucketNumber = nowNanos / bucketNanos;
+        int index = (int) (bucketNumber % BUCKETS);
+        long stamp = bucketNumber & STAMP_MASK;
+
+        while (true) {
+            long current = buckets.get(index);
+            long calls = 0;
+            long failures = 0;
+
+            if (current >>> STAMP_SHIFT == stamp) {
+                calls = (current >>> CALLS_SHIFT) & COUNT_MASK;
+                failures = current & COUNT_MASK;
+            }
+            if (calls == COUNT_MASK) {
+                calls >>>= 1;
+                failures >>>= 1;
+            }
+            calls++;
+            if (failure) {
+                failures++;
+            }
+
+            if (buckets.compareAndSet(index, current, (stamp << STAMP_SHIFT) | (calls << CALLS_SHIFT) | failures)) {
+                break;
+            }
+        }
+
+        if (!failure) {
+            return false; //just a failure can reach the failure rate
+        }
+
+        long totalCalls = sum(stamp, CALLS_SHIFT);
+        return totalCalls >= minCalls && sum(stamp, 0) * 100 >= totalCalls * failureRate;
+    }
+
+    /**
+     * Clears the window, e.g. once the circuit gets closed again.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0L);
+        }
+    }
+
+    /**
+     * Returns the number of failures within the period.
+     *
+     * @param nowNanos the current time in nanoseconds
+     * @return the failure count
+     */
+    public long getFailureCount(long nowNanos) {
+        return sum((nowNanos / bucketNanos) & STAMP_MASK, 0);
+    }
+
+    private long sum(long stamp, int shift) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = buckets.get(i);
+
+            //ignores buckets which are outside of the period
+            if (((stamp - (bucket >>> STAMP_SHIFT)) & STAMP_MASK) < BUCKETS) {
+                total += (bucket >>> shift) & COUNT_MASK;
+            }
+        }
+        return total;
+    }
+}
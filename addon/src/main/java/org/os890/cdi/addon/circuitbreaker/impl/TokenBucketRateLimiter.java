@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free token bucket (see {@code @RateLimit}).
+ *
+ * <p>Implemented as generic cell rate algorithm: instead of tokens, a single {@code long} keeps the
+ * (theoretical) time at which the bucket is full again. Every permit moves it by one emission interval
+ * ({@code period / permits}); a call is permitted if that time is at most {@code burst} intervals ahead.
+ * Acquiring a permit is a single CAS, a call which waits reserves its permit first and parks afterwards.</p>
+ */
+public class TokenBucketRateLimiter {
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long maxWaitNanos;
+
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * Creates a new (full) token bucket.
+     *
+     * @param permits      the permits per period
+     * @param periodNanos  the length of the period
+     * @param burst        the number of permits which may be used at once ({@code 1} = smooth, {@code permits} = bursty)
+     * @param maxWaitNanos the max. time a call waits for a permit ({@code 0} = no waiting)
+     */
+    public TokenBucketRateLimiter(int permits, long periodNanos, int burst, long maxWaitNanos) {
+        if (permits < 1 || burst < 1 || periodNanos / permits < 1) {
+            throw new IllegalArgumentException("at least one permit per period (and nanosecond) is required");
+        }
+        this.emissionIntervalNanos = periodNanos / permits;
+        this.burstToleranceNanos = emissionIntervalNanos * burst;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * Tries to acquire a permit (waits up to the max. wait time if there is no free permit).
+     *
+     * @return {@code true} if the execution is permitted
+     */
+    public boolean tryAcquire() {
+        long waitNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrivalTime.get();
+            //an idle bucket is full - unused permits of the past don't accumulate beyond the burst
+            long updated = (current - now < 0 ? now : current) + emissionIntervalNanos;
+            waitNanos = updated - now - burstToleranceNanos;
+
+            if (waitNanos > maxWaitNanos) {
+                rejectedCalls.increment();
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(current, updated)) {
+                break;
+            }
+        }
+
+        if (waitNanos <= 0) {
+            return true;
+        }
+
+        //the permit is reserved - a call interrupted while waiting gets rejected (and loses the permit)
+        long deadline = System.nanoTime() + waitNanos;
+        for (long remaining = waitNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, remaining);
+
+            if (Thread.currentThread().isInterrupted()) {
+                rejectedCalls.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of calls which got rejected because the rate limit was reached.
+     *
+     * @return the rejected call count
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+}
@@ -17,30 +17,21 @@
  * under the License.
  */
 
-package org.os890.cdi.addon.metrics.impl;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+package org.os890.cdi.addon.metrics.api;
 
 /**
- * Helper that provides an unmanaged single-thread executor for
- * asynchronous metrics cleanup tasks.
+ * Outcome of a protected call, counted per method and time slot.
+ *
+ * <p>Slow (and fast) calls are counted independently of the outcome
+ * (see {@link FilterMethodsFasterThan}).</p>
  */
-public class UnmanagedExecutorHelper {
-
-    private static ExecutorService executor = Executors.newSingleThreadExecutor();
-
-    /**
-     * Submits a task for asynchronous execution. If the executor has been
-     * shut down, a new one is created.
-     *
-     * @param task the task to execute
-     */
-    public static void execute(Runnable task) {
-        if (executor.isTerminated() || executor.isShutdown()) {
-            executor = Executors.newSingleThreadExecutor();
-        }
-
-        executor.submit(task);
-    }
+public enum CallOutcome {
+    /** The method returned normally (within the timeout). */
+    SUCCESS,
+    /** The method threw an exception (within the timeout). */
+    EXCEPTION,
+    /** The execution exceeded the timeout of {@code @ExecutionFailure}. */
+    TIMEOUT,
+    /** The call was rejected with a {@code ServiceOverloadedException} (the method wasn't invoked). */
+    REJECTED
 }
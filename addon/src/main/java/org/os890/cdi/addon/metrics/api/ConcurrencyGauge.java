@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.api;
+
+/**
+ * Live view of the concurrency limit of a protected method (e.g. of {@code @MaxConcurrentCalls}).
+ *
+ * <p>Gauges get registered per method key in the {@code MetricsStorage}. Unlike the recorded calls,
+ * the values aren't stored per time slot - they just reflect the current state.</p>
+ */
+public interface ConcurrencyGauge {
+
+    /**
+     * Returns the number of calls which are currently executed.
+     *
+     * @return the in-flight call count
+     */
+    int getInFlightCalls();
+
+    /**
+     * Returns the max. number of calls which may be executed concurrently.
+     *
+     * @return the current limit
+     */
+    int getMaxConcurrentCalls();
+
+    /**
+     * Returns the number of calls which got rejected because the limit was reached.
+     *
+     * @return the rejected call count (since the creation of the gauge)
+     */
+    long getRejectedCalls();
+}
@@ -33,10 +33,14 @@ import java.lang.annotation.Target;
  * Optional annotation that allows skipping metrics details for methods which
  * execute faster than the given value.
  *
- * <p>Furthermore {@link org.os890.cdi.addon.circuitbreaker.impl.OverloadProtectionInterceptor}
- * filters executions faster than 2ms to improve the overall performance.
- * To change that see the DeltaSpike config key:
- * {@code OverloadProtection_filterMethodsFasterThanMs}.</p>
+ * <p>The threshold can be expressed in milliseconds ({@link #ms()}) or - for methods which
+ * are usually faster than a millisecond - in microseconds ({@link #micros()}).</p>
+ *
+ * <p>Methods without this annotation use the threshold of {@link #DEFAULT}, which can be configured via the
+ * DeltaSpike config keys {@code FilterMethodsFasterThan_ms} (default: {@code 1}) or
+ * {@code FilterMethodsFasterThan_micros}. The
+ * {@link org.os890.cdi.addon.circuitbreaker.impl.OverloadProtectionInterceptor} filters very fast executions
+ * with the same threshold (resolved once per method) to improve the overall performance.</p>
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
@@ -44,14 +48,21 @@ import java.lang.annotation.Target;
 public @interface FilterMethodsFasterThan {
 
     /**
-     * The minimum execution time in milliseconds.
+     * The minimum execution time in milliseconds (ignored if {@link #micros()} is set).
      * Use {@code @OverloadProtection(collectMetrics = false)} to skip metrics recording entirely.
      *
      * @return the threshold in milliseconds
      */
-    int ms();
+    int ms() default 0;
+
+    /**
+     * The minimum execution time in microseconds. Negative values mean that {@link #ms()} is used.
+     *
+     * @return the threshold in microseconds
+     */
+    long micros() default -1;
 
-    /** Default literal with value from DeltaSpike configuration (default 100ms). */
+    /** Default literal with value from DeltaSpike configuration (default 1ms). */
     Literal DEFAULT = new Literal();
 
     /**
@@ -59,14 +70,19 @@ public @interface FilterMethodsFasterThan {
      */
     class Literal extends AnnotationLiteral<FilterMethodsFasterThan> implements FilterMethodsFasterThan {
 
-        private static final long serialVersionUID = 7310730593030223981L;
+        private static final long serialVersionUID = 7310730593030223982L;
 
         private final int value;
+        private final long microsValue;
 
         private Literal() {
             String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
-                    FilterMethodsFasterThan.class.getSimpleName() + "_ms", "100");
+                    FilterMethodsFasterThan.class.getSimpleName() + "_ms", "1");
             value = Integer.parseInt(configuredValue);
+
+            configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                    FilterMethodsFasterThan.class.getSimpleName() + "_micros", "-1");
+            microsValue = Long.parseLong(configuredValue);
         }
 
         /**
@@ -76,11 +92,41 @@ public @interface FilterMethodsFasterThan {
          */
         Literal(int value) {
             this.value = value;
+            this.microsValue = -1;
         }
 
         @Override
         public int ms() {
             return value;
         }
+
+        @Override
+        public long micros() {
+            return microsValue;
+        }
+    }
+
+    /**
+     * Helper to evaluate the threshold of a {@link FilterMethodsFasterThan}.
+     */
+    final class Threshold {
+
+        private Threshold() {
+            //utility class
+        }
+
+        /**
+         * Returns the effective threshold of the given annotation in microseconds.
+         *
+         * @param filterMethodsFasterThan the annotation
+         * @return the threshold in microseconds or a negative value if no metrics should be recorded
+         */
+        public static long toMicros(FilterMethodsFasterThan filterMethodsFasterThan) {
+            if (filterMethodsFasterThan.micros() >= 0) {
+                return filterMethodsFasterThan.micros();
+            }
+            int thresholdMs = filterMethodsFasterThan.ms();
+            return thresholdMs < 0 ? -1L : thresholdMs * 1_000L;
+        }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Selects the method keys of a {@link MetricsStorage} query.
+ *
+ * <p>Keys are created by {@code InvocationPlanCache#createKey} (e.g. {@code class com.acme.Service#call|int}).
+ * Prefixes refer to the fully qualified class name, so {@code class }/{@code interface } isn't part of them.</p>
+ */
+public final class KeyFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Includes all keys. */
+    public static final KeyFilter ALL = new KeyFilter(null, null);
+
+    private static final String CLASS_PREFIX = "class ";
+    private static final String INTERFACE_PREFIX = "interface ";
+
+    private final String prefix;
+    private final Set<String> keys;
+
+    private KeyFilter(String prefix, Set<String> keys) {
+        this.prefix = prefix;
+        this.keys = keys;
+    }
+
+    /**
+     * Includes all methods of classes whose fully qualified name starts with the given prefix.
+     *
+     * @param classNamePrefix the prefix (e.g. {@code com.acme.payment.Payment} or {@code com.acme.payment.PaymentService#charge})
+     * @return the filter
+     */
+    public static KeyFilter classPrefix(String classNamePrefix) {
+        return new KeyFilter(classNamePrefix, null);
+    }
+
+    /**
+     * Includes all methods of classes within the given package (incl. sub-packages).
+     *
+     * @param packageName the package name (e.g. {@code com.acme.payment})
+     * @return the filter
+     */
+    public static KeyFilter packageName(String packageName) {
+        return new KeyFilter(packageName + ".", null);
+    }
+
+    /**
+     * Includes just the given keys.
+     *
+     * @param keys the method keys
+     * @return the filter
+     */
+    public static KeyFilter keys(Collection<String> keys) {
+        return new KeyFilter(null, Collections.unmodifiableSet(new LinkedHashSet<>(keys)));
+    }
+
+    boolean isAll() {
+        return prefix == null && keys == null;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    Set<String> getKeys() {
+        return keys;
+    }
+
+    //the key of the sorted index (fully qualified class name first)
+    static String toIndexKey(String key) {
+        if (key.startsWith(CLASS_PREFIX)) {
+            return key.substring(CLASS_PREFIX.length());
+        }
+        if (key.startsWith(INTERFACE_PREFIX)) {
+            return key.substring(INTERFACE_PREFIX.length());
+        }
+        return key;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size log-linear histogram layout (similar to HdrHistogram) for call durations.
+ *
+ * <p>Values below {@value #SUB_BUCKET_COUNT} get a bucket each, every higher power of two (octave) is split
+ * into {@value #SUB_BUCKET_COUNT} linear sub-buckets. So the relative error of a reported value is at most
+ * 12.5% with just {@link #BUCKET_COUNT} buckets for values up to {@code 2^32} (more than an hour in microseconds).
+ * Higher values are counted in the last bucket.</p>
+ *
+ * <p>Histograms with this layout can be merged by adding the counts of the buckets,
+ * so percentiles of any window get calculated in {@code O(buckets)} without sorting.</p>
+ */
+public final class LatencyHistogram {
+
+    /** Number of linear sub-buckets per octave. */
+    public static final int SUB_BUCKET_COUNT = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 31;
+
+    /** Number of buckets of a histogram. */
+    public static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private LatencyHistogram() {
+        //utility class
+    }
+
+    /**
+     * Creates an empty histogram for concurrent recording.
+     *
+     * @return the new histogram
+     */
+    public static AtomicIntegerArray create() {
+        return new AtomicIntegerArray(BUCKET_COUNT);
+    }
+
+    /**
+     * Records a value in the given histogram.
+     *
+     * @param histogram the histogram
+     * @param value     the value to record
+     */
+    public static void record(AtomicIntegerArray histogram, long value) {
+        histogram.incrementAndGet(toBucketIndex(value));
+    }
+
+    /**
+     * Resets all buckets of the given histogram.
+     *
+     * @param histogram the histogram
+     */
+    public static void clear(AtomicIntegerArray histogram) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    /**
+     * Adds the counts of the given histogram to the target.
+     *
+     * @param histogram the histogram to merge
+     * @param target    the counts per bucket (length {@link #BUCKET_COUNT})
+     */
+    public static void mergeInto(AtomicIntegerArray histogram, long[] target) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            target[i] += histogram.get(i);
+        }
+    }
+
+    /**
+     * Returns the index of the bucket which counts the given value.
+     *
+     * @param value the value
+     * @return the bucket index
+     */
+    public static int toBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the highest value which is counted by the given bucket.
+     *
+     * @param bucketIndex the bucket index
+     * @return the highest value of the bucket
+     */
+    public static long highestEquivalentValue(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+
+        int exponent = bucketIndex / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = bucketIndex % SUB_BUCKET_COUNT;
+        long lowestValue = (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowestValue + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Calculates the values at the given percentiles within a single walk across the buckets.
+     *
+     * @param counts      the counts per bucket (e.g. the result of merged histograms)
+     * @param percentiles the percentiles as decimals in ascending order (each between {@code 0} and {@code 1})
+     * @param target      the (highest equivalent) values at the percentiles (or {@code 0} if the histogram is empty)
+     */
+    public static void valuesAtPercentiles(long[] counts, double[] percentiles, long[] target) {
+        long totalCount = 0;
+        for (long count : counts) {
+            totalCount += count;
+        }
+        if (totalCount == 0) {
+            Arrays.fill(target, 0L);
+            return;
+        }
+
+        int percentileIndex = 0;
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length && percentileIndex < percentiles.length; i++) {
+            cumulativeCount += counts[i];
+
+            while (percentileIndex < percentiles.length
+                    && cumulativeCount >= Math.max(1, (long) Math.ceil(percentiles[percentileIndex] * totalCount))) {
+                target[percentileIndex++] = highestEquivalentValue(i);
+            }
+        }
+    }
+
+    /**
+     * Calculates the value at the given percentile.
+     *
+     * @param counts     the counts per bucket (e.g. the result of merged histograms)
+     * @param percentile the percentile as a decimal (e.g. {@code 0.99} for the 99th percentile)
+     * @return the (highest equivalent) value at the percentile or {@code -1} if the histogram is empty
+     */
+    public static long valueAtPercentile(long[] counts, double percentile) {
+        long totalCount = 0;
+        for (long count : counts) {
+            totalCount += count;
+        }
+        if (totalCount == 0) {
+            return -1;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * totalCount));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+
+            if (cumulativeCount >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(counts.length - 1);
+    }
+}
@@ -20,24 +20,85 @@
 package org.os890.cdi.addon.metrics.impl;
 
 import org.apache.deltaspike.core.api.config.ConfigResolver;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Stores time-bucketed {@link StatsEntry} records for a single protected method,
- * with one entry per second of wall-clock time.
+ * Stores the statistics of a single protected method in rings of seconds, minutes and hours.
+ *
+ * <p>Every ring has one slot per time unit, indexed by {@code unit % capacity}. A slot gets reset once it's reused
+ * for a newer unit, so old units are evicted implicitly. The seconds cover the period configured via the DeltaSpike
+ * config key {@code MetricsEntry_maxCount} (default: 12 hours), the minutes and hours cover (at least) the same
+ * period. A slot contains the number, total, min. and max. duration of the slow calls, the number of fast calls
+ * (faster than the {@code FilterMethodsFasterThan} threshold), a counter per {@link CallOutcome} and the circuit
+ * state. The slots of a ring are split into chunks of {@value #SLOTS_PER_CHUNK} (one primitive array each),
+ * which get allocated with the first call of the chunk.</p>
+ *
+ * <p>Windows get visited via the coarsest slots which fit into them, e.g. a window of 12 hours needs less than
+ * 250 slots instead of 43,200. Percentiles are based on the {@link LatencyHistogram} of the minutes and hours,
+ * just the recent seconds (the largest sliding window plus one minute) have a histogram as well - an older second
+ * uses the histogram of its minute.</p>
+ *
+ * <p>The slow and fast calls of the recent seconds are also counted per sliding window (DeltaSpike config key
+ * {@code MetricsEntry_slidingWindows}, default: {@code 10,60,300} seconds), so reading a slow-call ratio doesn't
+ * visit any slot. Chunks which just contain evicted units get released by {@link #releaseExpiredSlots(long, long)}
+ * (see {@link MetricsRetention}).</p>
  */
 public class MetricsEntry implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 9L;
+
+    private static final int SLOTS_PER_CHUNK = 64;
+    private static final int CHUNK_SHIFT = 6;
+
+    //fields of a slot within a chunk
+    private static final int TIME_SLOT = 0;
+    private static final int NUMBER_OF_CALLS = 1;
+    private static final int TOTAL_DURATION = 2;
+    private static final int MIN_DURATION = 3;
+    private static final int MAX_DURATION = 4;
+    private static final int CIRCUIT_STATE = 5;
+    private static final int NUMBER_OF_FAST_CALLS = 6;
+    //one counter per CallOutcome (ordinal)
+    private static final int OUTCOME_COUNTS = 7;
+    private static final int FIELDS_PER_SLOT = OUTCOME_COUNTS + CallOutcome.values().length;
+
+    private static final long EMPTY_SLOT = -1L;
+    private static final long SLOT_IN_RESET = -2L;
+    private static final int CLOSED_STATE = CircuitState.Value.CLOSED.ordinal();
+
+    private static final int SECONDS_PER_MINUTE = 60;
+    private static final int SECONDS_PER_HOUR = 60 * SECONDS_PER_MINUTE;
 
-    private Map<Long, StatsEntry> statsEntries;
     private static Integer maxStatsEntries;
+    private static int[] slidingWindows;
+
+    private final int capacity;
+    private final SlotRing seconds;
+    private final SlotRing minutes;
+    private final SlotRing hours;
+    private final SlotRing recentSeconds;
+    //the latest second with a call (no overflow when subtracting the capacity)
+    private final AtomicLong latestSecond = new AtomicLong(Long.MIN_VALUE / 2);
+    private final SlidingCallCounter slidingCallCounter;
+
+    private volatile CircuitState.Value circuitState = CircuitState.Value.CLOSED;
+
+    //announced by the retention before the final check of the removal (see MetricsStorage#removeEmptyEntries)
+    private volatile boolean removed;
 
     /**
      * Creates a new metrics entry, initialising the maximum entry count from
@@ -51,26 +112,328 @@ public class MetricsEntry implements Serializable {
                     "" + (12 /*hours*/ * 60 /*min*/ * 60 /*sec*/));
             maxStatsEntries = Integer.parseInt(configuredValue);
         }
-        statsEntries = new ConcurrentHashMap<>(maxStatsEntries + 1);
+        if (slidingWindows == null) {
+            String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                    MetricsEntry.class.getSimpleName() + "_slidingWindows", "10,60,300");
+            slidingWindows = parseSlidingWindows(configuredValue);
+        }
+        capacity = maxStatsEntries;
+        seconds = new SlotRing(capacity, false);
+        //+2 for the partial minutes/hours at both ends of the period
+        minutes = new SlotRing(capacity / SECONDS_PER_MINUTE + 2, true);
+        hours = new SlotRing(capacity / SECONDS_PER_HOUR + 2, true);
+        //the seconds of the largest sliding window have a histogram as well (+1 minute since whole minutes are used)
+        recentSeconds = new SlotRing(
+                Math.min(Arrays.stream(slidingWindows).max().orElse(1) + SECONDS_PER_MINUTE, capacity), true);
+        slidingCallCounter = new SlidingCallCounter(slidingWindows);
     }
 
     /**
      * Records a slow call with the given duration.
      *
-     * @param duration the call duration in milliseconds
+     * @param duration the call duration in microseconds
      */
     public void recordSlowCall(long duration) {
-        StatsEntry currentEntry = getOrCreateCurrentEntry();
-        currentEntry.recordCall(duration);
+        recordSlowCall(createCurrentKey(), duration);
+    }
+
+    /**
+     * Records a slow call with the given duration in the given time slot.
+     * Calls of seconds which are already evicted get ignored.
+     *
+     * @param timeSlot the time slot (seconds since epoch)
+     * @param duration the call duration in microseconds
+     */
+    public void recordSlowCall(long timeSlot, long duration) {
+        if (seconds.record(timeSlot, duration)) {
+            minutes.record(Math.floorDiv(timeSlot, SECONDS_PER_MINUTE), duration);
+            hours.record(Math.floorDiv(timeSlot, SECONDS_PER_HOUR), duration);
+            recentSeconds.record(timeSlot, duration);
+            advanceLatestSecond(timeSlot);
+            slidingCallCounter.record(timeSlot, true);
+        }
+    }
+
+    /**
+     * Counts a call which was faster than the threshold of the method.
+     */
+    public void recordFastCall() {
+        recordFastCall(createCurrentKey());
+    }
+
+    /**
+     * Counts a call (of the given time slot) which was faster than the threshold of the method.
+     * Calls of seconds which are already evicted get ignored.
+     *
+     * @param timeSlot the time slot (seconds since epoch)
+     */
+    public void recordFastCall(long timeSlot) {
+        if (seconds.recordFastCall(timeSlot)) {
+            minutes.recordFastCall(Math.floorDiv(timeSlot, SECONDS_PER_MINUTE));
+            hours.recordFastCall(Math.floorDiv(timeSlot, SECONDS_PER_HOUR));
+            recentSeconds.recordFastCall(timeSlot);
+            advanceLatestSecond(timeSlot);
+            slidingCallCounter.record(timeSlot, false);
+        }
+    }
+
+    /**
+     * Counts a call with the given outcome.
+     *
+     * @param outcome the outcome of the call
+     */
+    public void recordOutcome(CallOutcome outcome) {
+        recordOutcome(createCurrentKey(), outcome);
+    }
+
+    /**
+     * Counts a call (of the given time slot) with the given outcome.
+     * Calls of seconds which are already evicted get ignored.
+     *
+     * @param timeSlot the time slot (seconds since epoch)
+     * @param outcome  the outcome of the call
+     */
+    public void recordOutcome(long timeSlot, CallOutcome outcome) {
+        if (seconds.recordOutcome(timeSlot, outcome)) {
+            minutes.recordOutcome(Math.floorDiv(timeSlot, SECONDS_PER_MINUTE), outcome);
+            hours.recordOutcome(Math.floorDiv(timeSlot, SECONDS_PER_HOUR), outcome);
+        }
+    }
+
+    /**
+     * Passes the statistics of all seconds (with at least one call) up to the given time slot to the visitor.
+     * Doesn't allocate.
+     *
+     * @param timeSlotBoarder the upper bound for time slots (inclusive)
+     * @param slotVisitor     the visitor
+     */
+    public void visitSlots(long timeSlotBoarder, SlotVisitor slotVisitor) {
+        seconds.visitAll(timeSlotBoarder, slotVisitor);
+    }
+
+    /**
+     * Passes the statistics of the given window to the visitor, using the coarsest slots (hours, minutes
+     * or seconds) which fit into the window. The time slot passed to the visitor is the first second of a slot.
+     * Doesn't allocate.
+     *
+     * @param fromTimeSlot the lower bound for time slots (inclusive)
+     * @param toTimeSlot   the upper bound for time slots (inclusive)
+     * @param slotVisitor  the visitor
+     */
+    public void visitWindow(long fromTimeSlot, long toTimeSlot, SlotVisitor slotVisitor) {
+        long second = Math.max(fromTimeSlot, toTimeSlot - capacity + 1);
+
+        while (second <= toTimeSlot) {
+            int resolution = resolutionAt(second, toTimeSlot);
+            toRing(resolution).visit(second / resolution, resolution, slotVisitor);
+            second += resolution;
+        }
+    }
+
+    /**
+     * Adds the latency histograms of the given window to the target, using the coarsest slots (hours or minutes)
+     * which fit into the window. Seconds at the bounds of the window use their own histogram if their minute is
+     * within the largest sliding window (see {@link #getSlidingWindows()}) plus one minute, older seconds are covered
+     * by the histogram of their minute (if there is a call within the window). Doesn't allocate.
+     *
+     * @param fromTimeSlot the lower bound for time slots (inclusive)
+     * @param toTimeSlot   the upper bound for time slots (inclusive)
+     * @param target       the counts per bucket (length {@link LatencyHistogram#BUCKET_COUNT})
+     * @return the number of slots which got merged
+     */
+    public int mergeHistograms(long fromTimeSlot, long toTimeSlot, long[] target) {
+        int result = 0;
+        long second = Math.max(fromTimeSlot, toTimeSlot - capacity + 1);
+        long firstRecentSecond = getFirstRecentSecond();
+
+        long mergedMinute = Long.MIN_VALUE;
+
+        while (second <= toTimeSlot) {
+            int resolution = resolutionAt(second, toTimeSlot);
+
+            if (resolution == 1) {
+                long minute = second / SECONDS_PER_MINUTE;
+                if (second >= firstRecentSecond) {
+                    if (recentSeconds.mergeHistogram(second, target)) {
+                        result++;
+                    }
+                } else if (minute != mergedMinute && seconds.hasCalls(second)) {
+                    mergedMinute = minute;
+                    if (minutes.mergeHistogram(minute, target)) {
+                        result++;
+                    }
+                }
+            } else if (toRing(resolution).mergeHistogram(second / resolution, target)) {
+                result++;
+            }
+            second += resolution;
+        }
+        return result;
+    }
+
+    //single pass across the window for all statistics (incl. the histograms)
+    void accumulateWindow(long fromTimeSlot, long toTimeSlot, WindowAccumulator windowAccumulator) {
+        long second = Math.max(fromTimeSlot, toTimeSlot - capacity + 1);
+        long firstRecentSecond = getFirstRecentSecond();
+
+        long mergedMinute = Long.MIN_VALUE;
+
+        while (second <= toTimeSlot) {
+            int resolution = resolutionAt(second, toTimeSlot);
+            boolean slotWithCalls = toRing(resolution).accumulate(second / resolution, windowAccumulator);
+
+            //older seconds don't have a histogram - the histogram of the minute gets merged once
+            if (resolution == 1 && slotWithCalls) {
+                if (second >= firstRecentSecond) {
+                    recentSeconds.mergeHistogram(second, windowAccumulator.histogram);
+                } else if (second / SECONDS_PER_MINUTE != mergedMinute) {
+                    mergedMinute = second / SECONDS_PER_MINUTE;
+                    minutes.mergeHistogram(mergedMinute, windowAccumulator.histogram);
+                }
+            }
+            second += resolution;
+        }
+    }
+
+    private void advanceLatestSecond(long timeSlot) {
+        long currentLatest = latestSecond.get();
+        while (timeSlot > currentLatest && !latestSecond.compareAndSet(currentLatest, timeSlot)) {
+            currentLatest = latestSecond.get();
+        }
+    }
+
+    //the first complete minute of the recent seconds, so all seconds of a minute use the same kind of histogram
+    //(the histogram of the minute covers the seconds of a recent minute as well)
+    private long getFirstRecentSecond() {
+        long firstRetainedSecond = latestSecond.get() - recentSeconds.capacity + 1;
+        return Math.floorDiv(firstRetainedSecond + SECONDS_PER_MINUTE - 1, SECONDS_PER_MINUTE) * SECONDS_PER_MINUTE;
+    }
+
+    //the coarsest resolution (in seconds) of a slot which starts at the given second and ends within the window
+    private static int resolutionAt(long second, long toTimeSlot) {
+        if (second % SECONDS_PER_HOUR == 0 && second + SECONDS_PER_HOUR - 1 <= toTimeSlot) {
+            return SECONDS_PER_HOUR;
+        }
+        if (second % SECONDS_PER_MINUTE == 0 && second + SECONDS_PER_MINUTE - 1 <= toTimeSlot) {
+            return SECONDS_PER_MINUTE;
+        }
+        return 1;
+    }
+
+    private SlotRing toRing(int resolution) {
+        if (resolution == SECONDS_PER_HOUR) {
+            return hours;
+        }
+        return resolution == SECONDS_PER_MINUTE ? minutes : seconds;
+    }
+
+    /**
+     * Returns the ratio of slow calls relative to all calls within the sliding window
+     * which ends with the current second.
+     *
+     * @param windowInSeconds the size of a configured sliding window (see {@link #getSlidingWindows()})
+     * @return the ratio between {@code 0} and {@code 1}
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public double getSlowCallRatio(int windowInSeconds) {
+        return getSlowCallRatio(windowInSeconds, createCurrentKey());
     }
 
     /**
-     * Returns the raw map of time-keyed stats entries.
+     * Returns the ratio of slow calls relative to all calls within the sliding window
+     * which ends with the given time slot.
+     *
+     * @param windowInSeconds the size of a configured sliding window (see {@link #getSlidingWindows()})
+     * @param timeSlot        the last second of the window (a previous second is treated as the latest one)
+     * @return the ratio between {@code 0} and {@code 1}
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public double getSlowCallRatio(int windowInSeconds, long timeSlot) {
+        long[] slowAndFastCalls = new long[2];
+        slidingCallCounter.readCounts(windowInSeconds, timeSlot, slowAndFastCalls);
+        long allCalls = slowAndFastCalls[0] + slowAndFastCalls[1];
+        return allCalls > 0 ? (double) slowAndFastCalls[0] / allCalls : 0d;
+    }
+
+    /**
+     * Copies the number of slow calls (index {@code 0}) and fast calls (index {@code 1}) within the sliding window
+     * which ends with the given time slot into the target. Doesn't allocate.
+     *
+     * @param windowInSeconds the size of a configured sliding window (see {@link #getSlidingWindows()})
+     * @param timeSlot        the last second of the window (a previous second is treated as the latest one)
+     * @param target          an array with (at least) two elements
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public void readSlidingCallCounts(int windowInSeconds, long timeSlot, long[] target) {
+        slidingCallCounter.readCounts(windowInSeconds, timeSlot, target);
+    }
+
+    /**
+     * Returns the sizes of the sliding windows.
+     *
+     * @return the window sizes in seconds
+     */
+    public int[] getSlidingWindows() {
+        return slidingCallCounter.getWindows();
+    }
+
+    /**
+     * Returns a snapshot of the time-keyed stats entries.
      *
      * @return the stats entries per second
      */
     public Map<Long, StatsEntry> getStatsEntriesPerSecond() {
-        return statsEntries;
+        Map<Long, StatsEntry> result = new TreeMap<>();
+        seconds.collectStatsEntries(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of per-second slots which are currently allocated (the storage grows on demand).
+     *
+     * @return the number of allocated slots
+     */
+    public int getAllocatedSlotCount() {
+        return seconds.getAllocatedSlotCount();
+    }
+
+    /**
+     * Releases the chunks (of all resolutions) which just contain time slots that are evicted at the given
+     * time slot. Just the chunks of the time slots evicted after the previous time slot get checked,
+     * so the effort depends on the elapsed time (and not on the capacity).
+     *
+     * @param previousTimeSlot the time slot (seconds since epoch) of the previous call, or negative to check all chunks
+     * @param currentTimeSlot  the current time slot (seconds since epoch)
+     * @return the number of released slots
+     */
+    public int releaseExpiredSlots(long previousTimeSlot, long currentTimeSlot) {
+        if (previousTimeSlot < 0) {
+            previousTimeSlot = Long.MIN_VALUE / 2; //no overflow when subtracting the capacity
+        }
+        return seconds.releaseExpiredChunks(previousTimeSlot, currentTimeSlot) +
+                recentSeconds.releaseExpiredChunks(previousTimeSlot, currentTimeSlot) +
+                minutes.releaseExpiredChunks(Math.floorDiv(previousTimeSlot, SECONDS_PER_MINUTE),
+                        Math.floorDiv(currentTimeSlot, SECONDS_PER_MINUTE)) +
+                hours.releaseExpiredChunks(Math.floorDiv(previousTimeSlot, SECONDS_PER_HOUR),
+                        Math.floorDiv(currentTimeSlot, SECONDS_PER_HOUR));
+    }
+
+    /**
+     * Returns {@code true} if no per-second slot is allocated, i.e. there is no call within the retained period
+     * (the minutes and hours just aggregate the same period).
+     *
+     * @return {@code true} if the entry is empty
+     */
+    public boolean isEmpty() {
+        return seconds.allocatedChunkCount.get() == 0;
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+
+    void setRemoved(boolean removed) {
+        this.removed = removed;
     }
 
     /**
@@ -79,7 +442,7 @@ public class MetricsEntry implements Serializable {
      * @return a snapshot of all stats entries
      */
     public Collection<StatsEntry> getStatsEntries() {
-        return new ArrayList<>(statsEntries.values());
+        return new ArrayList<>(getStatsEntriesPerSecond().values());
     }
 
     /**
@@ -91,66 +454,61 @@ public class MetricsEntry implements Serializable {
     public Collection<StatsEntry> getStatsEntries(long timeSlotBoarder) {
         List<StatsEntry> result = new ArrayList<>();
 
-        for (Map.Entry<Long, StatsEntry> entry : statsEntries.entrySet()) {
-            Long timeSlotKey = entry.getKey();
-
-            if (timeSlotKey == null) {
-                continue;
-            }
-            if (timeSlotKey <= timeSlotBoarder) {
+        for (Map.Entry<Long, StatsEntry> entry : getStatsEntriesPerSecond().entrySet()) {
+            if (entry.getKey() <= timeSlotBoarder) {
                 result.add(entry.getValue());
             }
         }
         return result;
     }
 
+    /**
+     * Returns the latest state of the circuit.
+     *
+     * @return the current circuit state
+     */
+    public CircuitState.Value getCircuitState() {
+        return circuitState;
+    }
+
     /**
      * Records an open-circuit event in the current time slot.
      */
-    public synchronized void onOpenCircuit() {
-        StatsEntry currentEntry = getOrCreateCurrentEntry();
-        currentEntry.onOpenCircuit();
+    public void onOpenCircuit() {
+        recordCircuitState(CircuitState.Value.OPEN);
     }
 
     /**
      * Records a half-open-circuit event in the current time slot.
      */
-    public synchronized void onHalfOpenCircuit() {
-        StatsEntry currentEntry = getOrCreateCurrentEntry();
-        currentEntry.onHalfOpenCircuit();
+    public void onHalfOpenCircuit() {
+        recordCircuitState(CircuitState.Value.HALF_OPEN);
     }
 
     /**
      * Records a close-circuit event in the current time slot.
      */
-    public synchronized void onCloseCircuit() {
-        StatsEntry currentEntry = getOrCreateCurrentEntry();
-        currentEntry.onCloseCircuit();
+    public void onCloseCircuit() {
+        recordCircuitState(CircuitState.Value.CLOSED);
     }
 
-    private StatsEntry getOrCreateCurrentEntry() {
-        long timeInSeconds = createCurrentKey();
-        StatsEntry statsEntry = statsEntries.get(timeInSeconds);
-
-        if (statsEntry == null) {
-            statsEntry = createNewEntry(timeInSeconds);
-        }
-        return statsEntry;
+    private void recordCircuitState(CircuitState.Value newCircuitState) {
+        circuitState = newCircuitState;
+        seconds.recordCircuitState(createCurrentKey(), newCircuitState);
     }
 
-    private synchronized StatsEntry createNewEntry(long timeInSeconds) {
-        StatsEntry statsEntry = statsEntries.get(timeInSeconds);
+    private static int[] parseSlidingWindows(String configuredValue) {
+        String[] values = configuredValue.split(",");
+        int[] result = new int[values.length];
 
-        if (statsEntry != null) {
-            return statsEntry;
-        }
-        statsEntry = new StatsEntry();
-        statsEntries.put(timeInSeconds, statsEntry);
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].trim());
 
-        if (statsEntries.size() > maxStatsEntries) {
-            new AsyncMetricsCollector(statsEntries, maxStatsEntries).start();
+            if (result[i] < 1) {
+                throw new IllegalArgumentException("invalid sliding window: " + configuredValue);
+            }
         }
-        return statsEntry;
+        return result;
     }
 
     /**
@@ -161,4 +519,429 @@ public class MetricsEntry implements Serializable {
     public static long createCurrentKey() {
         return System.currentTimeMillis() / 1000;
     }
+
+    /**
+     * Callback for the statistics of a single time slot.
+     */
+    @FunctionalInterface
+    public interface SlotVisitor {
+        /**
+         * Gets called for every time slot with at least one recorded call.
+         *
+         * @param timeSlot      the time slot (seconds since epoch)
+         * @param numberOfCalls the number of calls
+         * @param totalDuration the sum of all call durations in microseconds
+         * @param minDuration   the minimum call duration in microseconds
+         * @param maxDuration   the maximum call duration in microseconds
+         */
+        void visit(long timeSlot, long numberOfCalls, long totalDuration, long minDuration, long maxDuration);
+    }
+
+    /**
+     * Ring of slots with one slot per time unit (second, minute or hour), keyed by the number of the unit since epoch.
+     */
+    private static final class SlotRing implements Serializable {
+
+        private static final long serialVersionUID = 3L;
+
+        private final int capacity;
+        private final AtomicReferenceArray<AtomicLongArray> chunks;
+        private final AtomicReferenceArray<AtomicReferenceArray<AtomicIntegerArray>> histogramChunks;
+        private final AtomicInteger allocatedChunkCount = new AtomicInteger();
+
+        private SlotRing(int capacity, boolean withHistograms) {
+            this.capacity = capacity;
+            chunks = new AtomicReferenceArray<>((capacity + SLOTS_PER_CHUNK - 1) >>> CHUNK_SHIFT);
+            histogramChunks = withHistograms ? new AtomicReferenceArray<>(chunks.length()) : null;
+        }
+
+        //returns false if the slot is already evicted
+        private boolean record(long timeSlot, long duration) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = getOrCreateChunk(index);
+            int offset = toOffset(index);
+
+            if (!claimSlot(index, chunk, offset, timeSlot)) {
+                return false;
+            }
+            if (histogramChunks != null) {
+                LatencyHistogram.record(getOrCreateHistogram(index, chunk), duration);
+            }
+
+            chunk.incrementAndGet(offset + NUMBER_OF_CALLS);
+            chunk.addAndGet(offset + TOTAL_DURATION, duration);
+
+            long currentMin = chunk.get(offset + MIN_DURATION);
+            while (duration < currentMin && !chunk.compareAndSet(offset + MIN_DURATION, currentMin, duration)) {
+                currentMin = chunk.get(offset + MIN_DURATION);
+            }
+
+            long currentMax = chunk.get(offset + MAX_DURATION);
+            while (duration > currentMax && !chunk.compareAndSet(offset + MAX_DURATION, currentMax, duration)) {
+                currentMax = chunk.get(offset + MAX_DURATION);
+            }
+            return true;
+        }
+
+        //returns false if the slot is already evicted
+        private boolean recordFastCall(long timeSlot) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = getOrCreateChunk(index);
+            int offset = toOffset(index);
+
+            if (!claimSlot(index, chunk, offset, timeSlot)) {
+                return false;
+            }
+            chunk.incrementAndGet(offset + NUMBER_OF_FAST_CALLS);
+            return true;
+        }
+
+        //returns false if the slot is already evicted
+        private boolean recordOutcome(long timeSlot, CallOutcome outcome) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = getOrCreateChunk(index);
+            int offset = toOffset(index);
+
+            if (!claimSlot(index, chunk, offset, timeSlot)) {
+                return false;
+            }
+            chunk.incrementAndGet(offset + OUTCOME_COUNTS + outcome.ordinal());
+            return true;
+        }
+
+        private void recordCircuitState(long timeSlot, CircuitState.Value circuitState) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = getOrCreateChunk(index);
+            int offset = toOffset(index);
+
+            if (claimSlot(index, chunk, offset, timeSlot)) {
+                chunk.set(offset + CIRCUIT_STATE, circuitState.ordinal());
+            }
+        }
+
+        //passes the slot of the given time unit to the visitor (if it contains calls)
+        private void visit(long timeSlot, int resolution, SlotVisitor slotVisitor) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = chunks.get(index >>> CHUNK_SHIFT);
+
+            if (chunk == null) {
+                return;
+            }
+
+            int offset = toOffset(index);
+            if (chunk.get(offset + TIME_SLOT) != timeSlot) {
+                return;
+            }
+
+            long callCount = chunk.get(offset + NUMBER_OF_CALLS);
+            long totalDuration = chunk.get(offset + TOTAL_DURATION);
+            long minDuration = chunk.get(offset + MIN_DURATION);
+            long maxDuration = chunk.get(offset + MAX_DURATION);
+
+            //the slot got reused in the meantime or a parallel thread is going to record the first call soon
+            if (callCount == 0 || chunk.get(offset + TIME_SLOT) != timeSlot) {
+                return;
+            }
+            slotVisitor.visit(timeSlot * resolution, callCount, totalDuration, minDuration, maxDuration);
+        }
+
+        private void visitAll(long timeSlotBoarder, SlotVisitor slotVisitor) {
+            for (int chunkIndex = 0; chunkIndex < chunks.length(); chunkIndex++) {
+                AtomicLongArray chunk = chunks.get(chunkIndex);
+
+                if (chunk == null) {
+                    continue;
+                }
+
+                for (int offset = 0; offset < chunk.length(); offset += FIELDS_PER_SLOT) {
+                    long timeSlot = chunk.get(offset + TIME_SLOT);
+
+                    if (timeSlot < 0 || timeSlot > timeSlotBoarder) {
+                        continue;
+                    }
+
+                    long callCount = chunk.get(offset + NUMBER_OF_CALLS);
+                    long totalDuration = chunk.get(offset + TOTAL_DURATION);
+                    long minDuration = chunk.get(offset + MIN_DURATION);
+                    long maxDuration = chunk.get(offset + MAX_DURATION);
+
+                    //the slot got reused in the meantime or a parallel thread is going to record the first call soon
+                    if (callCount == 0 || chunk.get(offset + TIME_SLOT) != timeSlot) {
+                        continue;
+                    }
+                    slotVisitor.visit(timeSlot, callCount, totalDuration, minDuration, maxDuration);
+                }
+            }
+        }
+
+        //returns true if the slot contains calls
+        private boolean accumulate(long timeSlot, WindowAccumulator windowAccumulator) {
+            int index = toIndex(timeSlot);
+            int chunkIndex = index >>> CHUNK_SHIFT;
+            AtomicLongArray chunk = chunks.get(chunkIndex);
+
+            if (chunk == null) {
+                return false;
+            }
+
+            int offset = toOffset(index);
+            if (chunk.get(offset + TIME_SLOT) != timeSlot) {
+                return false;
+            }
+
+            long callCount = chunk.get(offset + NUMBER_OF_CALLS);
+            long totalDuration = chunk.get(offset + TOTAL_DURATION);
+            long minDuration = chunk.get(offset + MIN_DURATION);
+            long maxDuration = chunk.get(offset + MAX_DURATION);
+            long fastCallCount = chunk.get(offset + NUMBER_OF_FAST_CALLS);
+            long[] outcomeCounts = windowAccumulator.slotOutcomeCounts;
+            for (int i = 0; i < outcomeCounts.length; i++) {
+                outcomeCounts[i] = chunk.get(offset + OUTCOME_COUNTS + i);
+            }
+
+            if (callCount > 0 && histogramChunks != null) {
+                AtomicReferenceArray<AtomicIntegerArray> histograms = histogramChunks.get(chunkIndex);
+                AtomicIntegerArray histogram = histograms != null ? histograms.get(index & (SLOTS_PER_CHUNK - 1)) : null;
+
+                if (histogram != null) {
+                    LatencyHistogram.mergeInto(histogram, windowAccumulator.histogram);
+                }
+            }
+
+            //the slot got reused in the meantime
+            if (chunk.get(offset + TIME_SLOT) != timeSlot) {
+                return false;
+            }
+            windowAccumulator.add(callCount, totalDuration, minDuration, maxDuration, fastCallCount);
+            return callCount > 0;
+        }
+
+        private boolean hasCalls(long timeSlot) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = chunks.get(index >>> CHUNK_SHIFT);
+            int offset = toOffset(index);
+
+            return chunk != null && chunk.get(offset + TIME_SLOT) == timeSlot && chunk.get(offset + NUMBER_OF_CALLS) > 0;
+        }
+
+        //returns false if there is no histogram for the given time unit
+        private boolean mergeHistogram(long timeSlot, long[] target) {
+            int index = toIndex(timeSlot);
+            AtomicLongArray chunk = chunks.get(index >>> CHUNK_SHIFT);
+            AtomicReferenceArray<AtomicIntegerArray> histograms =
+                    histogramChunks != null ? histogramChunks.get(index >>> CHUNK_SHIFT) : null;
+
+            if (chunk == null || histograms == null || chunk.get(toOffset(index) + TIME_SLOT) != timeSlot) {
+                return false;
+            }
+
+            AtomicIntegerArray histogram = histograms.get(index & (SLOTS_PER_CHUNK - 1));
+            if (histogram == null) {
+                return false;
+            }
+            LatencyHistogram.mergeInto(histogram, target);
+            return true;
+        }
+
+        private void collectStatsEntries(Map<Long, StatsEntry> result) {
+            for (int chunkIndex = 0; chunkIndex < chunks.length(); chunkIndex++) {
+                AtomicLongArray chunk = chunks.get(chunkIndex);
+
+                if (chunk == null) {
+                    continue;
+                }
+
+                for (int offset = 0; offset < chunk.length(); offset += FIELDS_PER_SLOT) {
+                    long timeSlot = chunk.get(offset + TIME_SLOT);
+
+                    if (timeSlot >= 0) {
+                        result.put(timeSlot, new StatsEntry(chunk.get(offset + NUMBER_OF_CALLS), chunk.get(offset + TOTAL_DURATION),
+                                chunk.get(offset + MIN_DURATION), chunk.get(offset + MAX_DURATION),
+                                CircuitState.Value.values()[(int) chunk.get(offset + CIRCUIT_STATE)]));
+                    }
+                }
+            }
+        }
+
+        private int getAllocatedSlotCount() {
+            int result = 0;
+            for (int chunkIndex = 0; chunkIndex < chunks.length(); chunkIndex++) {
+                AtomicLongArray chunk = chunks.get(chunkIndex);
+
+                if (chunk != null) {
+                    result += chunk.length() / FIELDS_PER_SLOT;
+                }
+            }
+            return result;
+        }
+
+        //the units of a chunk are consecutive, so just the chunks of the units after previousUnit can be expired since then
+        private int releaseExpiredChunks(long previousUnit, long currentUnit) {
+            if (currentUnit <= previousUnit) {
+                return 0;
+            }
+
+            //(almost) a complete round, so the range of chunks might wrap around to the first one
+            if (currentUnit - previousUnit >= capacity - SLOTS_PER_CHUNK) {
+                int result = 0;
+                for (int chunkIndex = 0; chunkIndex < chunks.length(); chunkIndex++) {
+                    result += releaseExpiredChunk(chunkIndex, currentUnit);
+                }
+                return result;
+            }
+
+            int result = 0;
+            int lastChunkIndex = toIndex(currentUnit) >>> CHUNK_SHIFT;
+            int chunkIndex = toIndex(previousUnit + 1) >>> CHUNK_SHIFT;
+            while (true) {
+                result += releaseExpiredChunk(chunkIndex, currentUnit);
+
+                if (chunkIndex == lastChunkIndex) {
+                    return result;
+                }
+                chunkIndex = (chunkIndex + 1) % chunks.length();
+            }
+        }
+
+        private int releaseExpiredChunk(int chunkIndex, long currentUnit) {
+            //calls of the current (and the next) unit might get recorded in parallel
+            if (chunkIndex == toIndex(currentUnit) >>> CHUNK_SHIFT || chunkIndex == toIndex(currentUnit + 1) >>> CHUNK_SHIFT) {
+                return 0;
+            }
+
+            AtomicLongArray chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                return 0;
+            }
+
+            long latestExpiredUnit = currentUnit - capacity;
+            for (int offset = 0; offset < chunk.length(); offset += FIELDS_PER_SLOT) {
+                long timeSlot = chunk.get(offset + TIME_SLOT);
+
+                if (timeSlot > latestExpiredUnit || timeSlot == SLOT_IN_RESET) {
+                    return 0;
+                }
+            }
+
+            if (!chunks.compareAndSet(chunkIndex, chunk, null)) {
+                return 0;
+            }
+            if (histogramChunks != null) {
+                histogramChunks.set(chunkIndex, null);
+            }
+            allocatedChunkCount.decrementAndGet();
+            return chunk.length() / FIELDS_PER_SLOT;
+        }
+
+        private AtomicLongArray getOrCreateChunk(int index) {
+            int chunkIndex = index >>> CHUNK_SHIFT;
+            AtomicLongArray chunk = chunks.get(chunkIndex);
+
+            if (chunk != null) {
+                return chunk;
+            }
+
+            //the last chunk might be smaller
+            int slotCount = Math.min(SLOTS_PER_CHUNK, capacity - (chunkIndex << CHUNK_SHIFT));
+            AtomicLongArray newChunk = new AtomicLongArray(slotCount * FIELDS_PER_SLOT);
+            for (int offset = 0; offset < newChunk.length(); offset += FIELDS_PER_SLOT) {
+                newChunk.set(offset + TIME_SLOT, EMPTY_SLOT);
+            }
+
+            if (chunks.compareAndSet(chunkIndex, null, newChunk)) {
+                allocatedChunkCount.incrementAndGet();
+                return newChunk;
+            }
+            return chunks.get(chunkIndex);
+        }
+
+        private AtomicIntegerArray getOrCreateHistogram(int index, AtomicLongArray chunk) {
+            int chunkIndex = index >>> CHUNK_SHIFT;
+            AtomicReferenceArray<AtomicIntegerArray> histograms = histogramChunks.get(chunkIndex);
+
+            if (histograms == null) {
+                //same size as the chunk of the slots
+                AtomicReferenceArray<AtomicIntegerArray> newHistograms =
+                        new AtomicReferenceArray<>(chunk.length() / FIELDS_PER_SLOT);
+
+                if (histogramChunks.compareAndSet(chunkIndex, null, newHistograms)) {
+                    histograms = newHistograms;
+                } else {
+                    histograms = histogramChunks.get(chunkIndex);
+                }
+            }
+
+            int slotIndex = index & (SLOTS_PER_CHUNK - 1);
+            AtomicIntegerArray histogram = histograms.get(slotIndex);
+
+            if (histogram != null) {
+                return histogram;
+            }
+
+            AtomicIntegerArray newHistogram = LatencyHistogram.create();
+            if (histograms.compareAndSet(slotIndex, null, newHistogram)) {
+                return newHistogram;
+            }
+            return histograms.get(slotIndex);
+        }
+
+        //returns false if the slot already contains a newer time unit
+        private boolean claimSlot(int index, AtomicLongArray chunk, int offset, long timeSlot) {
+            while (true) {
+                long currentTimeSlot = chunk.get(offset + TIME_SLOT);
+
+                if (currentTimeSlot == timeSlot) {
+                    return true;
+                }
+                if (currentTimeSlot == SLOT_IN_RESET) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (currentTimeSlot > timeSlot) {
+                    return false;
+                }
+
+                if (chunk.compareAndSet(offset + TIME_SLOT, currentTimeSlot, SLOT_IN_RESET)) {
+                    chunk.set(offset + NUMBER_OF_CALLS, 0);
+                    chunk.set(offset + TOTAL_DURATION, 0);
+                    chunk.set(offset + MIN_DURATION, Long.MAX_VALUE);
+                    chunk.set(offset + MAX_DURATION, Long.MIN_VALUE);
+                    chunk.set(offset + CIRCUIT_STATE, CLOSED_STATE);
+                    chunk.set(offset + NUMBER_OF_FAST_CALLS, 0);
+                    for (int i = OUTCOME_COUNTS; i < FIELDS_PER_SLOT; i++) {
+                        chunk.set(offset + i, 0);
+                    }
+                    clearHistogram(index);
+                    chunk.set(offset + TIME_SLOT, timeSlot); //publishes the reset slot
+                    return true;
+                }
+            }
+        }
+
+        //a reused slot keeps its histogram
+        private void clearHistogram(int index) {
+            if (histogramChunks == null) {
+                return;
+            }
+
+            AtomicReferenceArray<AtomicIntegerArray> histograms = histogramChunks.get(index >>> CHUNK_SHIFT);
+
+            if (histograms == null) {
+                return;
+            }
+
+            AtomicIntegerArray histogram = histograms.get(index & (SLOTS_PER_CHUNK - 1));
+            if (histogram != null) {
+                LatencyHistogram.clear(histogram);
+            }
+        }
+
+        private int toIndex(long timeSlot) {
+            return (int) Math.floorMod(timeSlot, (long) capacity);
+        }
+
+        private static int toOffset(int index) {
+            return (index & (SLOTS_PER_CHUNK - 1)) * FIELDS_PER_SLOT;
+        }
+    }
 }
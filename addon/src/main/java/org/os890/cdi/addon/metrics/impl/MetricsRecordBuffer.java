@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import org.apache.deltaspike.core.api.config.ConfigResolver;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer ring buffer which hands the durations of protected calls
+ * over to the {@link MetricsStorage}.
+ *
+ * <p>Callers just write primitive records (id of the method key, duration and outcome) into pre-allocated
+ * arrays. A single daemon thread drains the buffer in batches. If the buffer is full, the record gets
+ * dropped (and counted) or recorded by the calling thread, see the DeltaSpike config keys
+ * {@code OverloadProtection_metricsBufferCapacity} (default: {@code 8192}) and
+ * {@code OverloadProtection_metricsBufferOverflowPolicy} ({@code DROP} (default) or {@code CALLER_RUNS}).</p>
+ */
+@ApplicationScoped
+public class MetricsRecordBuffer {
+
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final CallOutcome[] OUTCOMES = CallOutcome.values();
+
+    /**
+     * Duration of a call which was faster than the filter threshold of the interceptor.
+     * The call just gets counted (like a call faster than the {@code FilterMethodsFasterThan} threshold).
+     */
+    public static final long FILTERED_DURATION = -1L;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    private OverflowPolicy overflowPolicy;
+
+    private int mask;
+    //sequence per slot (Vyukov): == position -> writable, == position + 1 -> readable
+    private AtomicLongArray sequences;
+    private int[] keyIds;
+    private long[] durations;
+    private byte[] outcomes;
+
+    private final AtomicLong producerPosition = new AtomicLong();
+    private long consumerPosition; //just used by the consumer thread
+
+    private final LongAdder droppedRecords = new LongAdder();
+
+    private volatile boolean running;
+    private Thread consumerThread;
+
+    /**
+     * Allocates the buffer based on the DeltaSpike configuration and starts the consumer thread.
+     */
+    @PostConstruct
+    protected void init() {
+        String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                OverloadProtection.class.getSimpleName() + "_metricsBufferCapacity", "8192");
+        int capacity = Integer.highestOneBit(Math.max(2, Integer.parseInt(configuredValue)) * 2 - 1); //next power of two
+
+        configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                OverloadProtection.class.getSimpleName() + "_metricsBufferOverflowPolicy", OverflowPolicy.DROP.name());
+        overflowPolicy = OverflowPolicy.valueOf(configuredValue.trim().toUpperCase());
+
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        keyIds = new int[capacity];
+        durations = new long[capacity];
+        outcomes = new byte[capacity];
+
+        running = true;
+        consumerThread = new Thread(this::drainContinuously, "overload-protection-metrics");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Stops the consumer thread after draining the remaining records.
+     */
+    @PreDestroy
+    protected void destroy() {
+        running = false;
+        LockSupport.unpark(consumerThread);
+        try {
+            consumerThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the id of the given method key, registering it if necessary
+     * (see {@link MetricsStorage#registerKey(String, long)}).
+     *
+     * @param key                           the method key
+     * @param filterMethodsFasterThanMicros the effective threshold of the method (negative = no metrics)
+     * @return the (dense) id of the key
+     */
+    public int registerKey(String key, long filterMethodsFasterThanMicros) {
+        return metricsStorage.registerKey(key, filterMethodsFasterThanMicros);
+    }
+
+    /**
+     * Hands a successful call over to the consumer thread. Doesn't block and doesn't allocate.
+     *
+     * @param keyId    the id of the method key (see {@link #registerKey(String, long)})
+     * @param duration the call duration in microseconds
+     * @return {@code true} if the record was added to the buffer
+     */
+    public boolean offer(int keyId, long duration) {
+        return offer(keyId, duration, CallOutcome.SUCCESS);
+    }
+
+    /**
+     * Hands a call over to the consumer thread. Doesn't block and doesn't allocate.
+     *
+     * @param keyId    the id of the method key (see {@link #registerKey(String, long)})
+     * @param duration the call duration in microseconds (ignored for {@link CallOutcome#REJECTED})
+     *                 or {@link #FILTERED_DURATION}
+     * @param outcome  the outcome of the call
+     * @return {@code true} if the record was added to the buffer
+     */
+    public boolean offer(int keyId, long duration, CallOutcome outcome) {
+        while (true) {
+            long position = producerPosition.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    keyIds[index] = keyId;
+                    durations[index] = duration;
+                    outcomes[index] = (byte) outcome.ordinal();
+                    sequences.set(index, position + 1); //publishes the record
+                    return true;
+                }
+            } else if (difference < 0) {
+                onOverflow(keyId, duration, outcome);
+                return false;
+            }
+            //else: another producer claimed the slot - retry with the next position
+        }
+    }
+
+    /**
+     * Returns the number of records which got dropped because the buffer was full.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Returns the max. number of pending records.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    private void onOverflow(int keyId, long duration, CallOutcome outcome) {
+        if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            recordInStorage(keyId, duration, outcome);
+        } else {
+            droppedRecords.increment();
+        }
+    }
+
+    private void drainContinuously() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        drain();
+    }
+
+    private int drain() {
+        int drainedRecordCount = 0;
+        int batchSize;
+        do {
+            batchSize = drainBatch();
+            drainedRecordCount += batchSize;
+        } while (batchSize == MAX_BATCH_SIZE);
+        return drainedRecordCount;
+    }
+
+    private int drainBatch() {
+        int batchSize = 0;
+        while (batchSize < MAX_BATCH_SIZE) {
+            long position = consumerPosition;
+            int index = (int) position & mask;
+
+            if (sequences.get(index) != position + 1) {
+                break; //empty (or the producer hasn't published the claimed slot yet)
+            }
+
+            int keyId = keyIds[index];
+            long duration = durations[index];
+            CallOutcome outcome = OUTCOMES[outcomes[index]];
+            sequences.set(index, position + mask + 1); //frees the slot for the next round
+            consumerPosition = position + 1;
+            batchSize++;
+
+            recordInStorage(keyId, duration, outcome);
+        }
+        return batchSize;
+    }
+
+    private void recordInStorage(int keyId, long duration, CallOutcome outcome) {
+        metricsStorage.record(keyId, duration, outcome);
+    }
+
+    /**
+     * Enumeration of the supported strategies for records which don't fit into the buffer.
+     */
+    public enum OverflowPolicy {
+        /** The record gets dropped (see {@link MetricsRecordBuffer#getDroppedRecordCount()}). */
+        DROP,
+        /** The calling thread records the call directly in the {@link MetricsStorage}. */
+        CALLER_RUNS
+    }
+}
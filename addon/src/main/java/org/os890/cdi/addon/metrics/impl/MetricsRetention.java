@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import org.apache.deltaspike.core.api.config.ConfigResolver;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-scoped retention of the {@link MetricsStorage}.
+ *
+ * <p>The rings of a {@link MetricsEntry} evict old time slots implicitly (once a slot gets reused),
+ * but the memory of methods which aren't called any longer stays allocated. A single daemon thread
+ * releases the chunks which just contain expired time slots and removes the entries of keys without
+ * retained calls. Every run just checks the chunks of the time slots which expired since the previous run.</p>
+ *
+ * <p>The interval can be configured via the DeltaSpike config key
+ * {@code MetricsRetention_intervalSeconds} (default: {@code 60}, {@code 0} = no scheduled retention).
+ * The retention gets started once the application scope is initialized and stopped with the application.</p>
+ */
+@ApplicationScoped
+public class MetricsRetention {
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    private ScheduledExecutorService retentionExecutor;
+
+    //the time slot of the previous run (negative = all chunks get checked)
+    private long previousTimeSlot = -1L;
+
+    private volatile long runCount;
+    private volatile long releasedSlotCount;
+    private volatile long removedEntryCount;
+    private volatile long lastReleasedSlotCount;
+    private volatile int lastRemovedEntryCount;
+    private volatile long lastRunDurationNanos;
+
+    /**
+     * Schedules the retention based on the DeltaSpike configuration (if it isn't scheduled already).
+     */
+    public synchronized void start() {
+        if (retentionExecutor != null) {
+            return;
+        }
+
+        String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                MetricsRetention.class.getSimpleName() + "_intervalSeconds", "60");
+        long interval = Long.parseLong(configuredValue);
+
+        if (interval <= 0) {
+            return;
+        }
+
+        retentionExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "overload-protection-metrics-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retentionExecutor.scheduleWithFixedDelay(this::expireSafely, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts the retention with the application (independent of the first recorded call).
+     *
+     * @param applicationScope the initialized application scope
+     */
+    protected void onStartup(@Observes @Initialized(ApplicationScoped.class) Object applicationScope) {
+        start();
+    }
+
+    /**
+     * Stops the scheduled retention (if started).
+     */
+    @PreDestroy
+    protected synchronized void destroy() {
+        if (retentionExecutor != null) {
+            retentionExecutor.shutdownNow();
+            retentionExecutor = null;
+        }
+    }
+
+    /**
+     * Releases the time slots which expired since the previous run and removes the entries of keys
+     * without retained calls.
+     *
+     * @return the number of released slots
+     */
+    public synchronized long expire() {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        long result = expire(previousTimeSlot, currentTimeSlot);
+        previousTimeSlot = currentTimeSlot;
+        return result;
+    }
+
+    /**
+     * Releases the time slots which expired between the given time slots and removes the entries of keys
+     * without retained calls.
+     *
+     * @param previousTimeSlot the time slot (seconds since epoch) of the previous run, or negative to check all slots
+     * @param currentTimeSlot  the current time slot (seconds since epoch)
+     * @return the number of released slots
+     */
+    public synchronized long expire(long previousTimeSlot, long currentTimeSlot) {
+        long start = System.nanoTime();
+        long releasedSlots = metricsStorage.releaseExpiredSlots(previousTimeSlot, currentTimeSlot);
+        int removedEntries = metricsStorage.removeEmptyEntries();
+        lastRunDurationNanos = System.nanoTime() - start;
+
+        lastReleasedSlotCount = releasedSlots;
+        lastRemovedEntryCount = removedEntries;
+        releasedSlotCount += releasedSlots;
+        removedEntryCount += removedEntries;
+        runCount++;
+        return releasedSlots;
+    }
+
+    /**
+     * Returns the number of retention runs.
+     *
+     * @return the number of runs
+     */
+    public long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Returns the number of slots released by all runs.
+     *
+     * @return the number of released slots
+     */
+    public long getReleasedSlotCount() {
+        return releasedSlotCount;
+    }
+
+    /**
+     * Returns the number of entries removed by all runs.
+     *
+     * @return the number of removed entries
+     */
+    public long getRemovedEntryCount() {
+        return removedEntryCount;
+    }
+
+    /**
+     * Returns the number of slots released by the latest run.
+     *
+     * @return the number of released slots
+     */
+    public long getLastReleasedSlotCount() {
+        return lastReleasedSlotCount;
+    }
+
+    /**
+     * Returns the number of entries removed by the latest run.
+     *
+     * @return the number of removed entries
+     */
+    public int getLastRemovedEntryCount() {
+        return lastRemovedEntryCount;
+    }
+
+    /**
+     * Returns the duration of the latest run.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getLastRunDurationNanos() {
+        return lastRunDurationNanos;
+    }
+
+    //an exception would suppress all subsequent runs
+    private void expireSafely() {
+        try {
+            expire();
+        } catch (Throwable t) {
+            //don't handle exceptions during metrics-handling
+        }
+    }
+}
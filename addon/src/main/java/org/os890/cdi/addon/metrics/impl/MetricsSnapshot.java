@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable result of {@link MetricsStorage#snapshot(long, long)}:
+ * all statistics of a window per method key, calculated in a single pass.
+ * All durations are in microseconds.
+ */
+public final class MetricsSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long fromTimeSlot;
+    private final long toTimeSlot;
+    private final Map<String, MethodStats> statsPerKey;
+
+    MetricsSnapshot(long fromTimeSlot, long toTimeSlot, Map<String, MethodStats> statsPerKey) {
+        this.fromTimeSlot = fromTimeSlot;
+        this.toTimeSlot = toTimeSlot;
+        this.statsPerKey = Collections.unmodifiableMap(statsPerKey);
+    }
+
+    /**
+     * Returns the lower bound of the window.
+     *
+     * @return the first time slot (seconds since epoch) of the window
+     */
+    public long getFromTimeSlot() {
+        return fromTimeSlot;
+    }
+
+    /**
+     * Returns the upper bound of the window.
+     *
+     * @return the last time slot (seconds since epoch) of the window
+     */
+    public long getToTimeSlot() {
+        return toTimeSlot;
+    }
+
+    /**
+     * Returns the statistics per method key.
+     *
+     * @return an unmodifiable map of method key to statistics
+     */
+    public Map<String, MethodStats> getStatsPerKey() {
+        return statsPerKey;
+    }
+
+    /**
+     * Returns the statistics of the given method key.
+     *
+     * @param key the method key
+     * @return the statistics or {@code null} if there is no entry for the key
+     */
+    public MethodStats getStats(String key) {
+        return statsPerKey.get(key);
+    }
+
+    /**
+     * Statistics of a single method within the window of the snapshot.
+     */
+    public static final class MethodStats implements Serializable {
+
+        private static final long serialVersionUID = 2L;
+
+        private final long numberOfCalls;
+        private final long numberOfFastCalls;
+        private final long totalDuration;
+        private final long minDuration;
+        private final long maxDuration;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final CircuitState.Value circuitState;
+        private final long[] outcomeCounts;
+
+        //the percentiles are ordered p50, p90, p99, p99.9 (see MetricsStorage#SNAPSHOT_PERCENTILES)
+        MethodStats(WindowAccumulator windowAccumulator, long[] percentiles, CircuitState.Value circuitState) {
+            this.numberOfCalls = windowAccumulator.numberOfCalls;
+            this.numberOfFastCalls = windowAccumulator.numberOfFastCalls;
+            this.totalDuration = windowAccumulator.totalDuration;
+            this.minDuration = numberOfCalls > 0 ? windowAccumulator.minDuration : 0L;
+            this.maxDuration = numberOfCalls > 0 ? windowAccumulator.maxDuration : 0L;
+            this.p50 = windowAccumulator.limitToDurations(percentiles[0]);
+            this.p90 = windowAccumulator.limitToDurations(percentiles[1]);
+            this.p99 = windowAccumulator.limitToDurations(percentiles[2]);
+            this.p999 = windowAccumulator.limitToDurations(percentiles[3]);
+            this.circuitState = circuitState;
+            this.outcomeCounts = windowAccumulator.outcomeCounts.clone();
+        }
+
+        /**
+         * Returns the number of (slow) calls.
+         *
+         * @return the call count
+         */
+        public long getNumberOfCalls() {
+            return numberOfCalls;
+        }
+
+        /**
+         * Returns the number of calls which were faster than the threshold of the method.
+         *
+         * @return the number of fast calls
+         */
+        public long getNumberOfFastCalls() {
+            return numberOfFastCalls;
+        }
+
+        /**
+         * Returns the total duration of all (slow) calls.
+         *
+         * @return the total duration in microseconds
+         */
+        public long getTotalDuration() {
+            return totalDuration;
+        }
+
+        /**
+         * Returns the minimum call duration.
+         *
+         * @return the minimum duration in microseconds (or {@code 0} if no calls recorded)
+         */
+        public long getMinDuration() {
+            return minDuration;
+        }
+
+        /**
+         * Returns the maximum call duration.
+         *
+         * @return the maximum duration in microseconds (or {@code 0} if no calls recorded)
+         */
+        public long getMaxDuration() {
+            return maxDuration;
+        }
+
+        /**
+         * Returns the average call duration.
+         *
+         * @return the mean duration in microseconds (or {@code 0} if no calls recorded)
+         */
+        public double getMeanDuration() {
+            return numberOfCalls > 0 ? (double) totalDuration / numberOfCalls : 0d;
+        }
+
+        /**
+         * Returns the median call duration.
+         *
+         * @return the 50th percentile in microseconds
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * Returns the 90th percentile of the call durations.
+         *
+         * @return the 90th percentile in microseconds
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * Returns the 99th percentile of the call durations.
+         *
+         * @return the 99th percentile in microseconds
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * Returns the 99.9th percentile of the call durations.
+         *
+         * @return the 99.9th percentile in microseconds
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        /**
+         * Returns the ratio of slow calls relative to all calls.
+         *
+         * @return the ratio between {@code 0} and {@code 1}
+         */
+        public double getSlowCallRatio() {
+            long allCalls = numberOfCalls + numberOfFastCalls;
+            return allCalls > 0 ? (double) numberOfCalls / allCalls : 0d;
+        }
+
+        /**
+         * Returns the number of calls with the given outcome.
+         *
+         * @param outcome the outcome
+         * @return the call count
+         */
+        public long getOutcomeCount(CallOutcome outcome) {
+            return outcomeCounts[outcome.ordinal()];
+        }
+
+        /**
+         * Returns the ratio of calls with the given outcome relative to all calls (incl. rejected ones),
+         * e.g. the rejection rate.
+         *
+         * @param outcome the outcome
+         * @return the ratio between {@code 0} and {@code 1}
+         */
+        public double getOutcomeRatio(CallOutcome outcome) {
+            long allCalls = 0;
+            for (long outcomeCount : outcomeCounts) {
+                allCalls += outcomeCount;
+            }
+            return allCalls > 0 ? (double) outcomeCounts[outcome.ordinal()] / allCalls : 0d;
+        }
+
+        /**
+         * Returns the current state of the circuit (at the time the snapshot was created).
+         *
+         * @return the circuit state
+         */
+        public CircuitState.Value getCircuitState() {
+            return circuitState;
+        }
+    }
+}
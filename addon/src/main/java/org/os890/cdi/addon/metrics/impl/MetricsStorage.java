@@ -19,8 +19,11 @@
 
 package org.os890.cdi.addon.metrics.impl;
 
+import org.apache.deltaspike.core.api.config.ConfigResolver;
 import org.os890.cdi.addon.circuitbreaker.api.CircuitEvent;
 import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.api.ConcurrencyGauge;
 import org.os890.cdi.addon.metrics.api.FilterMethodsFasterThan;
 
 import jakarta.enterprise.context.ApplicationScoped;
@@ -29,63 +32,154 @@ import jakarta.enterprise.event.Observes;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Application-scoped storage for circuit-breaker invocation metrics.
  *
  * <p>Records call durations per method key, tracks circuit-breaker state
  * changes, and provides statistical calculations such as averages,
- * min/max values, and percentiles.</p>
+ * min/max values, and percentiles.
+ * All durations are in microseconds (measured via {@link System#nanoTime()}).</p>
+ *
+ * <p>Queries are answered via {@link MetricsEntry#visitWindow(long, long, MetricsEntry.SlotVisitor)}, so they
+ * use the per-hour and per-minute aggregates for the complete hours and minutes of a window and just
+ * the per-second statistics at the edges of it.</p>
+ *
+ * <p>{@link #snapshot(long, long)} calculates all statistics of a window per method key
+ * within a single pass (instead of one pass per {@code calc*} method).</p>
+ *
+ * <p>If there are many keys, the aggregations split the key space across the common fork-join pool
+ * and merge the partial results. See the DeltaSpike config key {@code MetricsStorage_parallelismThreshold}
+ * (default: {@code 1024} keys, {@code 0} = always sequential).</p>
+ *
+ * <p>All queries are also available for a window ({@code [from, to]}) and a {@link KeyFilter}.
+ * Filters by class or package just visit the range of matching keys of a sorted index.</p>
+ *
+ * <p>Every method key gets a dense id ({@link #registerKey(String, long)}), so calls can be recorded via
+ * {@link #record(int, long, CallOutcome)} without hashing the key or reading annotations.
+ * The string key is just used for queries and reporting.</p>
+ *
+ * <p>The slow-call ratios of sliding windows (see {@link #calcSlowCallRatio(int)}) are maintained incrementally
+ * per key, so they just need a constant effort per key.</p>
+ *
+ * <p>Expired time slots and keys without retained calls get released by the {@link MetricsRetention}.</p>
+ *
+ * <p>Methods with a concurrency limit register a {@link ConcurrencyGauge}, which provides the current number
+ * of in-flight calls and the number of calls rejected because of the limit (see {@link #calcInFlightCalls()}).</p>
  */
 @ApplicationScoped
 public class MetricsStorage {
 
-    private AtomicLong overallSlowCalls = new AtomicLong(0);
-    private AtomicLong overallFastCalls = new AtomicLong(0);
+    //has to be in ascending order (see MetricsSnapshot.MethodStats)
+    private static final double[] SNAPSHOT_PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    //number of keys which get aggregated by a single fork-join task
+    private static final int KEYS_PER_TASK = 256;
+
+    private final LongAdder overallSlowCalls = new LongAdder();
+    private final LongAdder overallFastCalls = new LongAdder();
 
-    private Map<String, MetricsEntry> entries = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, MetricsEntry> entries = new ConcurrentHashMap<>();
+
+    //index for filtered queries, sorted by the fully qualified class name (see KeyFilter#toIndexKey)
+    private final ConcurrentSkipListMap<String, Map.Entry<String, MetricsEntry>> entriesByClassName = new ConcurrentSkipListMap<>();
+
+    private final long parallelismThreshold;
+
+    private final Map<String, Integer> keyIdsPerKey = new ConcurrentHashMap<>();
+    private volatile RegisteredKey[] registeredKeys = new RegisteredKey[0];
+
+    private final Map<String, ConcurrencyGauge> concurrencyGauges = new ConcurrentHashMap<>();
 
     /**
-     * Records a method call with the given duration.
+     * Creates a new storage, initialising the parallelism threshold of the aggregations
+     * from DeltaSpike configuration.
+     */
+    public MetricsStorage() {
+        String configuredValue = ConfigResolver.getProjectStageAwarePropertyValue(
+                MetricsStorage.class.getSimpleName() + "_parallelismThreshold", "1024");
+        long configuredThreshold = Long.parseLong(configuredValue);
+        parallelismThreshold = configuredThreshold <= 0 ? Long.MAX_VALUE : configuredThreshold;
+    }
+
+    /**
+     * Returns the id of the given method key, registering it if necessary.
+     * The threshold is resolved once per method (see {@code InvocationPlanCache}), a key which is already
+     * registered keeps its threshold.
      *
-     * @param key           the method key
-     * @param currentMethod the method that was called
-     * @param duration      the call duration in milliseconds
+     * @param key                           the method key
+     * @param filterMethodsFasterThanMicros the effective {@link FilterMethodsFasterThan} threshold of the method
+     *                                      (negative = no metrics)
+     * @return the (dense) id of the key
      */
-    public void record(String key, Method currentMethod, long duration) {
-        try {
-            long newCallCount;
+    public int registerKey(String key, long filterMethodsFasterThanMicros) {
+        Integer keyId = keyIdsPerKey.get(key);
+
+        if (keyId != null) {
+            return keyId;
+        }
 
-            FilterMethodsFasterThan filterMethodsFasterThan = currentMethod.getAnnotation(FilterMethodsFasterThan.class);
-            if (filterMethodsFasterThan == null) {
-                filterMethodsFasterThan = FilterMethodsFasterThan.DEFAULT;
+        synchronized (keyIdsPerKey) {
+            keyId = keyIdsPerKey.get(key);
+            if (keyId != null) {
+                return keyId;
             }
 
-            int filterMethodsFasterThanMs = filterMethodsFasterThan.ms();
-            if (filterMethodsFasterThanMs < 0) {
+            RegisteredKey[] currentKeys = registeredKeys;
+            RegisteredKey[] newKeys = Arrays.copyOf(currentKeys, currentKeys.length + 1);
+            newKeys[currentKeys.length] = new RegisteredKey(key, filterMethodsFasterThanMicros);
+            registeredKeys = newKeys;
+            keyIdsPerKey.put(key, currentKeys.length);
+            return currentKeys.length;
+        }
+    }
+
+    /**
+     * Returns the method key of the given id.
+     *
+     * @param keyId the id of the method key (see {@link #registerKey(String, long)})
+     * @return the method key
+     */
+    public String getKey(int keyId) {
+        return registeredKeys[keyId].key;
+    }
+
+    /**
+     * Records a method call of the given (registered) key with the given duration and outcome.
+     * Doesn't hash the key (the entry gets resolved via the id).
+     *
+     * @param keyId    the id of the method key (see {@link #registerKey(String, long)})
+     * @param duration the call duration in microseconds
+     * @param outcome  the outcome of the call
+     */
+    public void record(int keyId, long duration, CallOutcome outcome) {
+        try {
+            RegisteredKey registeredKey = registeredKeys[keyId];
+
+            if (registeredKey.filterMethodsFasterThanMicros < 0) {
                 return;
             }
 
-            if (duration >= filterMethodsFasterThanMs) {
-                MetricsEntry entry = getOrCreateEntry(key);
+            MetricsEntry entry = registeredKey.entry;
+            if (entry == null) {
+                entry = resolveEntry(registeredKey);
+            }
+            record(entry, registeredKey.filterMethodsFasterThanMicros, duration, outcome);
 
-                entry.recordSlowCall(duration);
-                newCallCount = overallSlowCalls.incrementAndGet();
-                if (newCallCount < 0) { //can just happen in case of an overflow
-                    resetOverallCallStats();
-                }
-            } else {
-                newCallCount = overallFastCalls.incrementAndGet();
-                if (newCallCount < 0) { //can just happen in case of an overflow
-                    resetOverallCallStats();
-                }
+            if (entry.isRemoved()) {
+                recordAgainIfRemoved(registeredKey.key, entry, registeredKey.filterMethodsFasterThanMicros, duration, outcome);
             }
         } catch (Throwable t) {
             //don't handle exceptions during metrics-handling
@@ -93,73 +187,227 @@ public class MetricsStorage {
     }
 
     /**
-     * Calculates the percentage of slow calls relative to all recorded calls.
+     * Records a successful method call with the given duration.
+     *
+     * @param key           the method key
+     * @param currentMethod the method that was called
+     * @param duration      the call duration in microseconds
+     */
+    public void record(String key, Method currentMethod, long duration) {
+        record(key, currentMethod, duration, CallOutcome.SUCCESS);
+    }
+
+    /**
+     * Records a method call with the given duration and outcome.
+     * Rejected calls are just counted (the method wasn't invoked).
+     *
+     * @param key           the method key
+     * @param currentMethod the method that was called
+     * @param duration      the call duration in microseconds
+     * @param outcome       the outcome of the call
+     */
+    public void record(String key, Method currentMethod, long duration, CallOutcome outcome) {
+        try {
+            long filterMethodsFasterThanMicros = toFilterMethodsFasterThanMicros(currentMethod);
+            if (filterMethodsFasterThanMicros < 0) {
+                return;
+            }
+            MetricsEntry entry = getOrCreateEntry(key);
+            record(entry, filterMethodsFasterThanMicros, duration, outcome);
+
+            if (entry.isRemoved()) {
+                recordAgainIfRemoved(key, entry, filterMethodsFasterThanMicros, duration, outcome);
+            }
+        } catch (Throwable t) {
+            //don't handle exceptions during metrics-handling
+        }
+    }
+
+    private void record(MetricsEntry entry, long filterMethodsFasterThanMicros, long duration, CallOutcome outcome) {
+        recordInEntry(entry, filterMethodsFasterThanMicros, duration, outcome);
+
+        if (outcome == CallOutcome.REJECTED) {
+            return;
+        }
+
+        if (isSlowCall(filterMethodsFasterThanMicros, duration)) {
+            overallSlowCalls.increment();
+        } else {
+            overallFastCalls.increment();
+        }
+    }
+
+    private static void recordInEntry(MetricsEntry entry, long filterMethodsFasterThanMicros, long duration, CallOutcome outcome) {
+        entry.recordOutcome(outcome);
+
+        if (outcome == CallOutcome.REJECTED) {
+            return;
+        }
+
+        if (isSlowCall(filterMethodsFasterThanMicros, duration)) {
+            entry.recordSlowCall(duration);
+        } else {
+            entry.recordFastCall();
+        }
+    }
+
+    //calls filtered by the interceptor (MetricsRecordBuffer#FILTERED_DURATION) are just counted
+    private static boolean isSlowCall(long filterMethodsFasterThanMicros, long duration) {
+        return duration >= 0 && duration >= filterMethodsFasterThanMicros;
+    }
+
+    //the resolution is mutually exclusive with the removal, so a removed entry can't get cached (again)
+    private synchronized MetricsEntry resolveEntry(RegisteredKey registeredKey) {
+        MetricsEntry result = buildEntry(registeredKey.key);
+        registeredKey.entry = result;
+        return result;
+    }
+
+    //the call was recorded in an entry which got removed in parallel (the flag might just be the announcement
+    //of a removal which got cancelled, but the final state is visible with the lock of the removal)
+    private synchronized void recordAgainIfRemoved(String key, MetricsEntry removedEntry,
+                                                   long filterMethodsFasterThanMicros, long duration, CallOutcome outcome) {
+        if (removedEntry.isRemoved()) {
+            recordInEntry(buildEntry(key), filterMethodsFasterThanMicros, duration, outcome);
+        }
+    }
+
+    private static long toFilterMethodsFasterThanMicros(Method currentMethod) {
+        FilterMethodsFasterThan filterMethodsFasterThan = currentMethod.getAnnotation(FilterMethodsFasterThan.class);
+        if (filterMethodsFasterThan == null) {
+            filterMethodsFasterThan = FilterMethodsFasterThan.DEFAULT;
+        }
+        return FilterMethodsFasterThan.Threshold.toMicros(filterMethodsFasterThan);
+    }
+
+    /**
+     * Calculates the percentage of slow calls relative to all calls recorded since the start.
+     * See {@link #calcPercentageOfSlowCalls(int)} for the recent calls.
      *
      * @return the percentage of slow calls
      */
     public double calcPercentageOfSlowCalls() {
-        long slowCalls = overallSlowCalls.get();
-        long fastCalls = overallFastCalls.get();
+        long slowCalls = overallSlowCalls.sum();
+        long allCalls = slowCalls + overallFastCalls.sum();
 
-        if (slowCalls == 0L) {
-            return 0L;
+        return allCalls > 0L ? 100d * slowCalls / allCalls : 0d;
+    }
+
+    /**
+     * Calculates the percentage of slow calls (of all keys) relative to all calls within the sliding window
+     * which ends with the current second.
+     *
+     * @param windowInSeconds the size of a configured sliding window (see {@link MetricsEntry#getSlidingWindows()})
+     * @return the percentage of slow calls
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public double calcPercentageOfSlowCalls(int windowInSeconds) {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        long[] slowAndFastCalls = new long[2];
+        long slowCalls = 0;
+        long allCalls = 0;
+
+        for (MetricsEntry metricsEntry : entries.values()) {
+            metricsEntry.readSlidingCallCounts(windowInSeconds, currentTimeSlot, slowAndFastCalls);
+            slowCalls += slowAndFastCalls[0];
+            allCalls += slowAndFastCalls[0] + slowAndFastCalls[1];
         }
-        return new BigDecimal(100).divide(new BigDecimal(slowCalls + fastCalls), 10, RoundingMode.HALF_UP).multiply(new BigDecimal(slowCalls)).longValue();
+        return allCalls > 0L ? 100d * slowCalls / allCalls : 0d;
+    }
+
+    /**
+     * Calculates the ratio of slow calls per method key within the sliding window which ends with the current second.
+     *
+     * @param windowInSeconds the size of a configured sliding window (see {@link MetricsEntry#getSlidingWindows()})
+     * @return a map of method key to the ratio (between {@code 0} and {@code 1}) for all keys with calls in the window
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public Map<String, Double> calcSlowCallRatio(int windowInSeconds) {
+        return calcSlowCallRatio(KeyFilter.ALL, windowInSeconds);
+    }
+
+    /**
+     * Calculates the ratio of slow calls per (matching) method key within the sliding window
+     * which ends with the current second.
+     *
+     * @param keyFilter       the keys to include
+     * @param windowInSeconds the size of a configured sliding window (see {@link MetricsEntry#getSlidingWindows()})
+     * @return a map of method key to the ratio (between {@code 0} and {@code 1}) for all keys with calls in the window
+     * @throws IllegalArgumentException if there is no sliding window of the given size
+     */
+    public Map<String, Double> calcSlowCallRatio(KeyFilter keyFilter, int windowInSeconds) {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        long[] slowAndFastCalls = new long[2];
+        Map<String, Double> result = new HashMap<>();
+
+        for (Map.Entry<String, MetricsEntry> entry : selectEntries(keyFilter)) {
+            entry.getValue().readSlidingCallCounts(windowInSeconds, currentTimeSlot, slowAndFastCalls);
+            long allCalls = slowAndFastCalls[0] + slowAndFastCalls[1];
+
+            if (allCalls > 0L) {
+                result.put(entry.getKey(), (double) slowAndFastCalls[0] / allCalls);
+            }
+        }
+        return result;
     }
 
     /**
      * Calculates the overall average duration per method key.
      *
-     * @return a map of method key to average duration in milliseconds
+     * @return a map of method key to average duration in microseconds
      */
     public Map<String, Long> calcOverallAverage() {
         return calcOverallAverage(-1L);
     }
 
     /**
-     * Calculates the overall average duration per method key up to the given time slot.
+     * Calculates the overall average duration (weighted by the number of calls) per method key
+     * up to the given time slot.
      *
      * @param valueOfTheLatestTimeSlot the upper bound for time slots, or negative for current time
-     * @return a map of method key to average duration in milliseconds
+     * @return a map of method key to average duration in microseconds
      */
     public Map<String, Long> calcOverallAverage(long valueOfTheLatestTimeSlot) {
+        return calcOverallAverage(KeyFilter.ALL, 0L, valueOfTheLatestTimeSlot);
+    }
+
+    /**
+     * Calculates the average duration (weighted by the number of calls) per (matching) method key within the given window.
+     *
+     * @param keyFilter                  the keys to include
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return a map of method key to average duration in microseconds
+     */
+    public Map<String, Long> calcOverallAverage(KeyFilter keyFilter, long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
         if (valueOfTheLatestTimeSlot <= 0) {
             valueOfTheLatestTimeSlot = MetricsEntry.createCurrentKey();
         }
 
-        Map<String, Long> result = new HashMap<>();
-        for (Map.Entry<String, MetricsEntry> entry : entries.entrySet()) {
-            MetricsEntry metricsEntry = entry.getValue();
-
-            if (metricsEntry == null) {
-                continue;
+        long earliestTimeSlot = valueOfTheEarliestTimeSlot;
+        long latestTimeSlot = valueOfTheLatestTimeSlot;
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        forEachEntry(keyFilter, (key, metricsEntry, windowAccumulator) -> {
+            //the window is fixed, so calls which get recorded in parallel can't lead to an endless loop
+            long[] durationAndCount = new long[2];
+            metricsEntry.visitWindow(earliestTimeSlot, latestTimeSlot, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+                durationAndCount[0] += totalDuration;
+                durationAndCount[1] += numberOfCalls;
+            });
+            long duration = durationAndCount[0];
+            long numberOfCalls = durationAndCount[1];
+
+            if (numberOfCalls > 0L) {
+                result.put(key, new BigDecimal(duration).divide(new BigDecimal(numberOfCalls), 10, RoundingMode.HALF_UP).longValue());
             }
-
-            //since we just have 1 entry per second we can't get an endless loop (just because new calls get recorded in parallel)
-            //esp. because we just record slow calls and calls which finish in the same second get recorded by the same entry
-            double duration = 0L;
-            long numberOfEntries = 0L;
-            for (StatsEntry statsEntry : metricsEntry.getStatsEntries(valueOfTheLatestTimeSlot)) {
-                if (statsEntry.getNumberOfCalls() == 0) { //the entry was just created (as an empty entry and a parallel thread is going to update it soon)
-                    continue;
-                }
-
-                duration += statsEntry.getAverageDuration();
-                numberOfEntries++; //don't use the number of calls (it's used for the average-calc)
-            }
-
-            if (numberOfEntries > 0L) {
-                result.put(entry.getKey(), new BigDecimal(duration).divide(new BigDecimal(numberOfEntries), 10, RoundingMode.HALF_UP).longValue());
-            }
-        }
-
+        });
         return result;
     }
 
     /**
      * Calculates the overall minimum duration per method key.
      *
-     * @return a map of method key to minimum duration in milliseconds
+     * @return a map of method key to minimum duration in microseconds
      */
     public Map<String, Long> calcOverallMin() {
         return calcOverallMin(-1L);
@@ -169,45 +417,51 @@ public class MetricsStorage {
      * Calculates the overall minimum duration per method key up to the given time slot.
      *
      * @param valueOfTheLatestTimeSlot the upper bound for time slots, or negative for current time
-     * @return a map of method key to minimum duration in milliseconds
+     * @return a map of method key to minimum duration in microseconds
      */
     public Map<String, Long> calcOverallMin(long valueOfTheLatestTimeSlot) {
+        return calcOverallMin(KeyFilter.ALL, 0L, valueOfTheLatestTimeSlot);
+    }
+
+    /**
+     * Calculates the minimum duration per (matching) method key within the given window.
+     * Keys without a (measured) call within the window aren't included.
+     *
+     * @param keyFilter                  the keys to include
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return a map of method key to minimum duration in microseconds
+     */
+    public Map<String, Long> calcOverallMin(KeyFilter keyFilter, long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
         if (valueOfTheLatestTimeSlot <= 0) {
             valueOfTheLatestTimeSlot = MetricsEntry.createCurrentKey();
         }
 
-        Map<String, Long> result = new HashMap<>();
-        for (Map.Entry<String, MetricsEntry> entry : entries.entrySet()) {
-            MetricsEntry metricsEntry = entry.getValue();
-
-            if (metricsEntry == null) {
-                continue;
-            }
-
-            //since we just have 1 entry per second we can't get an endless loop (just because new calls get recorded in parallel)
-            //esp. because we just record slow calls and calls which finish in the same second get recorded by the same entry
-            long currentMin;
-            long globalMin = Long.MAX_VALUE;
-            for (StatsEntry statsEntry : metricsEntry.getStatsEntries(valueOfTheLatestTimeSlot)) {
-                if (statsEntry.getNumberOfCalls() == 0) { //the entry was just created (as an empty entry and a parallel thread is going to update it soon)
-                    continue;
+        long earliestTimeSlot = valueOfTheEarliestTimeSlot;
+        long latestTimeSlot = valueOfTheLatestTimeSlot;
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        forEachEntry(keyFilter, (key, metricsEntry, windowAccumulator) -> {
+            //the window is fixed, so calls which get recorded in parallel can't lead to an endless loop
+            long[] globalMinAndCount = {Long.MAX_VALUE, 0L};
+            metricsEntry.visitWindow(earliestTimeSlot, latestTimeSlot, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+                if (minDuration < globalMinAndCount[0]) {
+                    globalMinAndCount[0] = minDuration;
                 }
+                globalMinAndCount[1] += numberOfCalls;
+            });
 
-                currentMin = statsEntry.getMinDuration();
-                if (currentMin < globalMin) {
-                    globalMin = currentMin;
-                }
+            //no call within the window
+            if (globalMinAndCount[1] > 0L) {
+                result.put(key, globalMinAndCount[0]);
             }
-
-            result.put(entry.getKey(), globalMin);
-        }
+        });
         return result;
     }
 
     /**
      * Calculates the overall maximum duration per method key.
      *
-     * @return a map of method key to maximum duration in milliseconds
+     * @return a map of method key to maximum duration in microseconds
      */
     public Map<String, Long> calcOverallMax() {
         return calcOverallMax(-1L);
@@ -217,111 +471,189 @@ public class MetricsStorage {
      * Calculates the overall maximum duration per method key up to the given time slot.
      *
      * @param valueOfTheLatestTimeSlot the upper bound for time slots, or negative for current time
-     * @return a map of method key to maximum duration in milliseconds
+     * @return a map of method key to maximum duration in microseconds
      */
     public Map<String, Long> calcOverallMax(long valueOfTheLatestTimeSlot) {
+        return calcOverallMax(KeyFilter.ALL, 0L, valueOfTheLatestTimeSlot);
+    }
+
+    /**
+     * Calculates the maximum duration per (matching) method key within the given window.
+     * Keys without a (measured) call within the window aren't included.
+     *
+     * @param keyFilter                  the keys to include
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return a map of method key to maximum duration in microseconds
+     */
+    public Map<String, Long> calcOverallMax(KeyFilter keyFilter, long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
         if (valueOfTheLatestTimeSlot <= 0) {
             valueOfTheLatestTimeSlot = MetricsEntry.createCurrentKey();
         }
 
-        Map<String, Long> result = new HashMap<>();
-        for (Map.Entry<String, MetricsEntry> entry : entries.entrySet()) {
-            MetricsEntry metricsEntry = entry.getValue();
-
-            if (metricsEntry == null) {
-                continue;
-            }
-
-            //since we just have 1 entry per second we can't get an endless loop (just because new calls get recorded in parallel)
-            //esp. because we just record slow calls and calls which finish in the same second get recorded by the same entry
-            long currentMax;
-            long globalMax = 0L;
-            for (StatsEntry statsEntry : metricsEntry.getStatsEntries(valueOfTheLatestTimeSlot)) {
-                if (statsEntry.getNumberOfCalls() == 0) { //the entry was just created (as an empty entry and a parallel thread is going to update it soon)
-                    continue;
+        long earliestTimeSlot = valueOfTheEarliestTimeSlot;
+        long latestTimeSlot = valueOfTheLatestTimeSlot;
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        forEachEntry(keyFilter, (key, metricsEntry, windowAccumulator) -> {
+            //the window is fixed, so calls which get recorded in parallel can't lead to an endless loop
+            long[] globalMaxAndCount = {0L, 0L};
+            metricsEntry.visitWindow(earliestTimeSlot, latestTimeSlot, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+                if (maxDuration > globalMaxAndCount[0]) {
+                    globalMaxAndCount[0] = maxDuration;
                 }
+                globalMaxAndCount[1] += numberOfCalls;
+            });
 
-                currentMax = statsEntry.getMaxDuration();
-                if (currentMax > globalMax) {
-                    globalMax = currentMax;
-                }
+            //no call within the window
+            if (globalMaxAndCount[1] > 0L) {
+                result.put(key, globalMaxAndCount[0]);
             }
-
-            result.put(entry.getKey(), globalMax);
-        }
+        });
         return result;
     }
 
     /**
-     * Calculates the given percentile of average durations per method key.
+     * Calculates the given percentile of the call durations per method key.
      *
      * @param percentage the percentile as a decimal (e.g. 0.95 for 95th percentile)
-     * @return a map of method key to percentile duration in milliseconds
+     * @return a map of method key to percentile duration in microseconds
      */
     public Map<String, Long> calcPercentile(double percentage) {
         return calcPercentile(percentage, -1L);
     }
 
     /**
-     * Calculates the given percentile of average durations per method key up to the given time slot.
+     * Calculates the given percentile of the call durations per method key up to the given time slot.
      *
      * @param percentage               the percentile as a decimal (e.g. 0.95 for 95th percentile)
      * @param valueOfTheLatestTimeSlot the upper bound for time slots, or negative for current time
-     * @return a map of method key to percentile duration in milliseconds
+     * @return a map of method key to percentile duration in microseconds
      */
     public Map<String, Long> calcPercentile(double percentage, long valueOfTheLatestTimeSlot) {
+        return calcPercentile(percentage, 0L, valueOfTheLatestTimeSlot);
+    }
+
+    /**
+     * Calculates the given percentile of the call durations per method key within the given window.
+     *
+     * <p>The percentile is based on the merged {@link LatencyHistogram}s of the hours, minutes and recent seconds
+     * within the window (an older, partially covered minute contributes its whole histogram, see
+     * {@link MetricsEntry#mergeHistograms(long, long, long[])}), so the result is the highest value of the bucket
+     * which contains the percentile (limited by the min. and max. duration of the window).
+     * Keys without calls within the window aren't part of the result.</p>
+     *
+     * @param percentage                 the percentile as a decimal (e.g. 0.999 for 99.9th percentile)
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return a map of method key to percentile duration in microseconds
+     */
+    public Map<String, Long> calcPercentile(double percentage, long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
+        return calcPercentile(percentage, KeyFilter.ALL, valueOfTheEarliestTimeSlot, valueOfTheLatestTimeSlot);
+    }
+
+    /**
+     * Calculates the given percentile of the call durations per (matching) method key within the given window.
+     *
+     * @param percentage                 the percentile as a decimal (e.g. 0.999 for 99.9th percentile)
+     * @param keyFilter                  the keys to include
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return a map of method key to percentile duration in microseconds
+     */
+    public Map<String, Long> calcPercentile(double percentage, KeyFilter keyFilter,
+                                            long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
         if (valueOfTheLatestTimeSlot <= 0) {
             valueOfTheLatestTimeSlot = MetricsEntry.createCurrentKey();
         }
 
-        if (percentage > 0.99) {
+        if (percentage < 0 || percentage > 1) {
             return Collections.emptyMap();
         }
-        Map<String, Long> result = new HashMap<>();
-        for (Map.Entry<String, MetricsEntry> entry : entries.entrySet()) {
-            MetricsEntry metricsEntry = entry.getValue();
-
-            if (metricsEntry == null) {
-                continue;
-            }
-
-            //since we just have 1 entry per second we can't get an endless loop (just because new calls get recorded in parallel)
-            //esp. because we just record slow calls and calls which finish in the same second get recorded by the same entry
-            List<Long> averageListAcrossTimeslots = new ArrayList<>();
-            for (StatsEntry statsEntry : metricsEntry.getStatsEntries(valueOfTheLatestTimeSlot)) {
-                if (statsEntry.getNumberOfCalls() == 0) { //the entry was just created (as an empty entry and a parallel thread is going to update it soon)
-                    continue;
-                }
-
-                averageListAcrossTimeslots.add(Double.valueOf(statsEntry.getAverageDuration()).longValue());
+        long earliestTimeSlot = valueOfTheEarliestTimeSlot;
+        long latestTimeSlot = valueOfTheLatestTimeSlot;
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        forEachEntry(keyFilter, (key, metricsEntry, windowAccumulator) -> {
+            windowAccumulator.reset();
+            metricsEntry.accumulateWindow(earliestTimeSlot, latestTimeSlot, windowAccumulator);
+
+            long duration = LatencyHistogram.valueAtPercentile(windowAccumulator.histogram, percentage);
+            if (duration >= 0 && windowAccumulator.numberOfCalls > 0) {
+                result.put(key, windowAccumulator.limitToDurations(duration));
             }
+        });
+        return result;
+    }
 
-            if (averageListAcrossTimeslots.isEmpty()) {
-                continue;
-            }
+    /**
+     * Calculates all statistics of the last seconds per method key.
+     *
+     * @param windowInSeconds the size of the window (ending with the current second)
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot(long windowInSeconds) {
+        long toTimeSlot = MetricsEntry.createCurrentKey();
+        return snapshot(toTimeSlot - windowInSeconds + 1, toTimeSlot);
+    }
 
-            Collections.sort(averageListAcrossTimeslots);
+    /**
+     * Calculates count, total, min, max, mean, percentiles (p50, p90, p99, p99.9), slow-call ratio and
+     * the current circuit state per method key within a single pass across the given window.
+     *
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot(long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
+        return snapshot(KeyFilter.ALL, valueOfTheEarliestTimeSlot, valueOfTheLatestTimeSlot);
+    }
 
-            int index = new BigDecimal(averageListAcrossTimeslots.size()).multiply(new BigDecimal(percentage)).intValue();
-            if (index > 0) {
-                averageListAcrossTimeslots = averageListAcrossTimeslots.subList(0, index);
-            }
-            double duration = 0L;
-            for (Long currentDuration : averageListAcrossTimeslots) {
-                duration += currentDuration;
-            }
+    /**
+     * Calculates all statistics of the last seconds per (matching) method key,
+     * e.g. {@code snapshot(KeyFilter.packageName("com.acme.payment"), 60)}.
+     *
+     * @param keyFilter       the keys to include
+     * @param windowInSeconds the size of the window (ending with the current second)
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot(KeyFilter keyFilter, long windowInSeconds) {
+        long toTimeSlot = MetricsEntry.createCurrentKey();
+        return snapshot(keyFilter, toTimeSlot - windowInSeconds + 1, toTimeSlot);
+    }
 
-            BigDecimal divisor = new BigDecimal(averageListAcrossTimeslots.size());
-            if (divisor.intValue() == 0) {
-                result.put(entry.getKey(), Double.valueOf(duration).longValue());
-            } else {
-                result.put(entry.getKey(), new BigDecimal(duration).divide(divisor, 10, RoundingMode.HALF_UP).longValue());
-            }
+    /**
+     * Calculates all statistics of the given window per (matching) method key within a single pass.
+     *
+     * @param keyFilter                  the keys to include
+     * @param valueOfTheEarliestTimeSlot the lower bound for time slots (inclusive)
+     * @param valueOfTheLatestTimeSlot   the upper bound for time slots, or negative for current time
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot(KeyFilter keyFilter, long valueOfTheEarliestTimeSlot, long valueOfTheLatestTimeSlot) {
+        if (valueOfTheLatestTimeSlot <= 0) {
+            valueOfTheLatestTimeSlot = MetricsEntry.createCurrentKey();
         }
-        return result;
+
+        long earliestTimeSlot = valueOfTheEarliestTimeSlot;
+        long latestTimeSlot = valueOfTheLatestTimeSlot;
+        Map<String, MetricsSnapshot.MethodStats> result = new ConcurrentHashMap<>();
+        forEachEntry(keyFilter, (key, metricsEntry, windowAccumulator) -> {
+            windowAccumulator.reset();
+            metricsEntry.accumulateWindow(earliestTimeSlot, latestTimeSlot, windowAccumulator);
+
+            long[] percentiles = new long[SNAPSHOT_PERCENTILES.length];
+            LatencyHistogram.valuesAtPercentiles(windowAccumulator.histogram, SNAPSHOT_PERCENTILES, percentiles);
+            result.put(key, new MetricsSnapshot.MethodStats(windowAccumulator, percentiles, metricsEntry.getCircuitState()));
+        });
+        return new MetricsSnapshot(valueOfTheEarliestTimeSlot, valueOfTheLatestTimeSlot, result);
     }
 
-    private MetricsEntry getOrCreateEntry(String key) {
+    /**
+     * Returns the metrics entry of the given method key, creating it if necessary.
+     *
+     * @param key the method key
+     * @return the metrics entry
+     */
+    public MetricsEntry getOrCreateEntry(String key) {
         MetricsEntry entry = entries.get(key);
 
         if (entry == null) {
@@ -330,6 +662,59 @@ public class MetricsStorage {
         return entry;
     }
 
+    /**
+     * Registers the concurrency gauge of the given method key (replaces a previously registered gauge).
+     *
+     * @param key              the method key
+     * @param concurrencyGauge the gauge
+     */
+    public void registerConcurrencyGauge(String key, ConcurrencyGauge concurrencyGauge) {
+        concurrencyGauges.put(key, concurrencyGauge);
+    }
+
+    /**
+     * Removes the given concurrency gauge (if it's still registered for the method key).
+     *
+     * @param key              the method key
+     * @param concurrencyGauge the gauge
+     * @return {@code true} if the gauge was removed
+     */
+    public boolean removeConcurrencyGauge(String key, ConcurrencyGauge concurrencyGauge) {
+        return concurrencyGauges.remove(key, concurrencyGauge);
+    }
+
+    /**
+     * Returns the concurrency gauge of the given method key.
+     *
+     * @param key the method key
+     * @return the gauge or {@code null} if the method doesn't have a concurrency limit
+     */
+    public ConcurrencyGauge getConcurrencyGauge(String key) {
+        return concurrencyGauges.get(key);
+    }
+
+    /**
+     * Returns the current number of in-flight calls per method key (of methods with a concurrency limit).
+     *
+     * @return map of method keys to in-flight call counts
+     */
+    public Map<String, Integer> calcInFlightCalls() {
+        Map<String, Integer> result = new HashMap<>();
+        concurrencyGauges.forEach((key, concurrencyGauge) -> result.put(key, concurrencyGauge.getInFlightCalls()));
+        return result;
+    }
+
+    /**
+     * Returns the number of calls rejected because of the concurrency limit per method key.
+     *
+     * @return map of method keys to rejected call counts
+     */
+    public Map<String, Long> calcRejectedConcurrentCalls() {
+        Map<String, Long> result = new HashMap<>();
+        concurrencyGauges.forEach((key, concurrencyGauge) -> result.put(key, concurrencyGauge.getRejectedCalls()));
+        return result;
+    }
+
     /**
      * Observes circuit-open events and records them in the corresponding metrics entry.
      *
@@ -360,6 +745,165 @@ public class MetricsStorage {
         entry.onCloseCircuit();
     }
 
+    /**
+     * Returns the number of keys from which on the aggregations get split across the common fork-join pool.
+     *
+     * @return the parallelism threshold
+     */
+    public long getParallelismThreshold() {
+        return parallelismThreshold;
+    }
+
+    /**
+     * Releases the expired slots of all keys (see {@link MetricsEntry#releaseExpiredSlots(long, long)}).
+     *
+     * @param previousTimeSlot the time slot of the previous call, or negative to check all slots
+     * @param currentTimeSlot  the current time slot
+     * @return the number of released slots
+     */
+    long releaseExpiredSlots(long previousTimeSlot, long currentTimeSlot) {
+        long result = 0;
+        for (MetricsEntry metricsEntry : entries.values()) {
+            result += metricsEntry.releaseExpiredSlots(previousTimeSlot, currentTimeSlot);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the entries of all keys without retained calls (and with a closed circuit).
+     *
+     * <p>The removal gets announced via a flag of the entry before the entry gets checked again.
+     * A call which gets recorded in parallel either prevents the removal (the entry isn't empty any longer)
+     * or sees the flag and gets recorded again in the new entry of the key. The cached entry of a registered key
+     * gets reset with the removal and is resolved with the same lock, so it can't point to a removed entry.</p>
+     *
+     * @return the number of removed entries
+     */
+    int removeEmptyEntries() {
+        int result = 0;
+        for (Map.Entry<String, MetricsEntry> entry : entries.entrySet()) {
+            MetricsEntry metricsEntry = entry.getValue();
+
+            if (metricsEntry.isEmpty() && metricsEntry.getCircuitState() == CircuitState.Value.CLOSED &&
+                    removeEmptyEntry(entry.getKey(), metricsEntry)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private synchronized boolean removeEmptyEntry(String key, MetricsEntry metricsEntry) {
+        metricsEntry.setRemoved(true);
+
+        if (!metricsEntry.isEmpty() || metricsEntry.getCircuitState() != CircuitState.Value.CLOSED ||
+                !entries.remove(key, metricsEntry)) {
+            metricsEntry.setRemoved(false);
+            return false;
+        }
+        entriesByClassName.remove(KeyFilter.toIndexKey(key), new AbstractMap.SimpleImmutableEntry<>(key, metricsEntry));
+
+        Integer keyId = keyIdsPerKey.get(key);
+        if (keyId != null && registeredKeys[keyId].entry == metricsEntry) {
+            registeredKeys[keyId].entry = null;
+        }
+        return true;
+    }
+
+    //all keys get processed by the calling thread if there are less keys than the threshold
+    private void forEachEntry(KeyFilter keyFilter, EntryAction action) {
+        if (keyFilter.isAll() && entries.mappingCount() < parallelismThreshold) {
+            WindowAccumulator windowAccumulator = new WindowAccumulator();
+            entries.forEach((key, metricsEntry) -> action.apply(key, metricsEntry, windowAccumulator));
+            return;
+        }
+
+        List<Map.Entry<String, MetricsEntry>> currentEntries = selectEntries(keyFilter);
+        if (currentEntries.size() < parallelismThreshold) {
+            WindowAccumulator windowAccumulator = new WindowAccumulator();
+            for (Map.Entry<String, MetricsEntry> entry : currentEntries) {
+                action.apply(entry.getKey(), entry.getValue(), windowAccumulator);
+            }
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new AggregationTask(currentEntries, 0, currentEntries.size(), action));
+    }
+
+    //just the matching keys get visited (a prefix is a range of the sorted index)
+    private List<Map.Entry<String, MetricsEntry>> selectEntries(KeyFilter keyFilter) {
+        if (keyFilter.isAll()) {
+            return new ArrayList<>(entries.entrySet());
+        }
+
+        List<Map.Entry<String, MetricsEntry>> result = new ArrayList<>();
+        if (keyFilter.getKeys() != null) {
+            for (String key : keyFilter.getKeys()) {
+                MetricsEntry metricsEntry = entries.get(key);
+
+                if (metricsEntry != null) {
+                    result.add(new AbstractMap.SimpleImmutableEntry<>(key, metricsEntry));
+                }
+            }
+            return result;
+        }
+
+        String prefix = keyFilter.getPrefix();
+        result.addAll(entriesByClassName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface EntryAction {
+        //the accumulator is shared by all keys of a task (and has to be reset per key)
+        void apply(String key, MetricsEntry metricsEntry, WindowAccumulator windowAccumulator);
+    }
+
+    //splits the key space until a task has at most KEYS_PER_TASK keys, the partial results get merged by the actions
+    private static final class AggregationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Map.Entry<String, MetricsEntry>> currentEntries;
+        private final int fromIndex;
+        private final int toIndex;
+        private final transient EntryAction action;
+
+        private AggregationTask(List<Map.Entry<String, MetricsEntry>> currentEntries, int fromIndex, int toIndex, EntryAction action) {
+            this.currentEntries = currentEntries;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (toIndex - fromIndex <= KEYS_PER_TASK) {
+                WindowAccumulator windowAccumulator = new WindowAccumulator();
+                for (int i = fromIndex; i < toIndex; i++) {
+                    Map.Entry<String, MetricsEntry> entry = currentEntries.get(i);
+                    action.apply(entry.getKey(), entry.getValue(), windowAccumulator);
+                }
+                return;
+            }
+
+            int middleIndex = (fromIndex + toIndex) >>> 1;
+            invokeAll(new AggregationTask(currentEntries, fromIndex, middleIndex, action),
+                    new AggregationTask(currentEntries, middleIndex, toIndex, action));
+        }
+    }
+
+    private static final class RegisteredKey {
+        private final String key;
+        private final long filterMethodsFasterThanMicros;
+
+        //resolved with the first call (and reset if the entry gets removed by the retention)
+        private volatile MetricsEntry entry;
+
+        private RegisteredKey(String key, long filterMethodsFasterThanMicros) {
+            this.key = key;
+            this.filterMethodsFasterThanMicros = filterMethodsFasterThanMicros;
+        }
+    }
+
     private synchronized MetricsEntry buildEntry(String key) {
         MetricsEntry result = entries.get(key);
 
@@ -368,11 +912,7 @@ public class MetricsStorage {
         }
         result = new MetricsEntry();
         entries.put(key, result);
+        entriesByClassName.put(KeyFilter.toIndexKey(key), new AbstractMap.SimpleImmutableEntry<>(key, result));
         return result;
     }
-
-    private void resetOverallCallStats() {
-        overallSlowCalls = new AtomicLong(0);
-        overallFastCalls = new AtomicLong(0);
-    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Counts the slow and fast calls of a method within sliding windows (e.g. the last 10 seconds, minute and 5 minutes).
+ *
+ * <p>The counts of the last seconds (of the largest window) are kept in a ring and every window has running sums,
+ * which get updated once a second enters or leaves the window. So reading the counts of a window doesn't
+ * depend on its size. Calls are usually recorded by a single thread, so the (uncontended) lock is cheap.</p>
+ */
+final class SlidingCallCounter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] windows;
+    private final int span;
+
+    //allocated with the first call
+    private int[] slowCallsPerSecond;
+    private int[] fastCallsPerSecond;
+
+    private final long[] slowCallsPerWindow;
+    private final long[] fastCallsPerWindow;
+
+    private long currentSecond = Long.MIN_VALUE;
+
+    SlidingCallCounter(int[] windows) {
+        this.windows = windows;
+        this.span = Arrays.stream(windows).max().orElse(1);
+        slowCallsPerWindow = new long[windows.length];
+        fastCallsPerWindow = new long[windows.length];
+    }
+
+    synchronized void record(long second, boolean slow) {
+        if (slowCallsPerSecond == null) {
+            slowCallsPerSecond = new int[span];
+            fastCallsPerSecond = new int[span];
+        }
+
+        advance(second);
+
+        //already left the largest window
+        if (second <= currentSecond - span) {
+            return;
+        }
+
+        int index = toIndex(second);
+        if (slow) {
+            slowCallsPerSecond[index]++;
+        } else {
+            fastCallsPerSecond[index]++;
+        }
+
+        for (int i = 0; i < windows.length; i++) {
+            //a late call (of a previous second) might not be part of the smaller windows
+            if (second > currentSecond - windows[i]) {
+                if (slow) {
+                    slowCallsPerWindow[i]++;
+                } else {
+                    fastCallsPerWindow[i]++;
+                }
+            }
+        }
+    }
+
+    //the window ends with the given second, the result contains the slow calls at index 0 and the fast calls at index 1
+    synchronized void readCounts(int window, long second, long[] target) {
+        int windowIndex = indexOf(window);
+
+        if (slowCallsPerSecond == null) {
+            target[0] = 0;
+            target[1] = 0;
+            return;
+        }
+
+        advance(second);
+        target[0] = slowCallsPerWindow[windowIndex];
+        target[1] = fastCallsPerWindow[windowIndex];
+    }
+
+    int[] getWindows() {
+        return windows.clone();
+    }
+
+    //moves all windows to the given second (a previous second doesn't change anything)
+    private void advance(long second) {
+        if (second <= currentSecond) {
+            return;
+        }
+
+        if (currentSecond == Long.MIN_VALUE || second - currentSecond >= span) {
+            Arrays.fill(slowCallsPerSecond, 0);
+            Arrays.fill(fastCallsPerSecond, 0);
+            Arrays.fill(slowCallsPerWindow, 0L);
+            Arrays.fill(fastCallsPerWindow, 0L);
+            currentSecond = second;
+            return;
+        }
+
+        while (currentSecond < second) {
+            currentSecond++;
+
+            for (int i = 0; i < windows.length; i++) {
+                int leavingIndex = toIndex(currentSecond - windows[i]);
+                slowCallsPerWindow[i] -= slowCallsPerSecond[leavingIndex];
+                fastCallsPerWindow[i] -= fastCallsPerSecond[leavingIndex];
+            }
+
+            //the slot of the new second contained the second which just left the largest window
+            int index = toIndex(currentSecond);
+            slowCallsPerSecond[index] = 0;
+            fastCallsPerSecond[index] = 0;
+        }
+    }
+
+    private int indexOf(int window) {
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i] == window) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("no sliding window of " + window + " seconds - configured windows: " +
+                Arrays.toString(windows));
+    }
+
+    private int toIndex(long second) {
+        return (int) Math.floorMod(second, (long) span);
+    }
+}
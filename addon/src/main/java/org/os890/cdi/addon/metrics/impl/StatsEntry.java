@@ -24,54 +24,30 @@ import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Holds aggregated statistics for a single time slot (one second):
- * call count, min/max/total duration, and circuit-breaker state.
+ * call count, min/max/total duration (in microseconds), and circuit-breaker state.
+ * {@link MetricsEntry} keeps the statistics in primitive slots and creates
+ * (immutable) entries just as snapshots for callers.
  */
 public class StatsEntry implements Serializable {
 
-    private static final long serialVersionUID = 1L;
-
-    private CircuitState.Value circuitState = CircuitState.Value.CLOSED;
-
-    private long minDuration = 0L;
-    private long maxDuration = 0L;
-    private long duration = 0L;
-    private AtomicInteger numberOfCalls = new AtomicInteger(0);
-
-    /**
-     * Records a call with the given duration, updating min, max, and total.
-     *
-     * @param newDuration the call duration in milliseconds
-     */
-    public void recordCall(long newDuration) {
-        if (duration == 0L) {
-            duration = newDuration;
-            minDuration = newDuration;
-            maxDuration = newDuration;
-        } else {
-            duration += newDuration;
-            if (newDuration > maxDuration) {
-                maxDuration = newDuration;
-            } else if (newDuration < minDuration) {
-                minDuration = newDuration;
-            }
-        }
-        numberOfCalls.incrementAndGet();
-    }
-
-    void onOpenCircuit() {
-        circuitState = CircuitState.Value.OPEN;
-    }
-
-    void onHalfOpenCircuit() {
-        circuitState = CircuitState.Value.HALF_OPEN;
-    }
-
-    void onCloseCircuit() {
-        circuitState = CircuitState.Value.CLOSED;
+    private static final long serialVersionUID = 3L;
+
+    private final long numberOfCalls;
+    private final long totalDuration;
+    private final long minDuration;
+    private final long maxDuration;
+    private final CircuitState.Value circuitState;
+
+    StatsEntry(long numberOfCalls, long totalDuration, long minDuration, long maxDuration, CircuitState.Value circuitState) {
+        this.numberOfCalls = numberOfCalls;
+        this.totalDuration = totalDuration;
+        //an empty slot contains the initial values of min and max
+        this.minDuration = numberOfCalls > 0 ? minDuration : 0L;
+        this.maxDuration = numberOfCalls > 0 ? maxDuration : 0L;
+        this.circuitState = circuitState;
     }
 
     /**
@@ -80,10 +56,19 @@ public class StatsEntry implements Serializable {
      * @return the average duration, or {@code 0} if no calls recorded
      */
     public double getAverageDuration() {
-        if (numberOfCalls.get() == 0L) {
+        if (numberOfCalls == 0L) {
             return 0L;
         }
-        return new BigDecimal(duration).divide(new BigDecimal(numberOfCalls.get()), 10, RoundingMode.HALF_UP).doubleValue();
+        return new BigDecimal(totalDuration).divide(new BigDecimal(numberOfCalls), 10, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /**
+     * Returns the total duration of all calls recorded in this time slot.
+     *
+     * @return the total duration in microseconds
+     */
+    public long getTotalDuration() {
+        return totalDuration;
     }
 
     /*
@@ -93,7 +78,7 @@ public class StatsEntry implements Serializable {
     /**
      * Returns the minimum call duration recorded in this time slot.
      *
-     * @return the minimum duration in milliseconds
+     * @return the minimum duration in microseconds (or {@code 0} if no calls recorded)
      */
     public long getMinDuration() {
         return minDuration;
@@ -102,7 +87,7 @@ public class StatsEntry implements Serializable {
     /**
      * Returns the maximum call duration recorded in this time slot.
      *
-     * @return the maximum duration in milliseconds
+     * @return the maximum duration in microseconds (or {@code 0} if no calls recorded)
      */
     public long getMaxDuration() {
         return maxDuration;
@@ -114,7 +99,7 @@ public class StatsEntry implements Serializable {
      * @return the call count
      */
     public int getNumberOfCalls() {
-        return numberOfCalls.get();
+        return (int) numberOfCalls;
     }
 
     /**
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.metrics.impl;
+
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+
+import java.util.Arrays;
+
+/**
+ * Mutable accumulator for the statistics of a window, which gets reused for all keys of a
+ * {@link MetricsStorage#snapshot(long, long)} (to avoid allocations per key and slot).
+ */
+final class WindowAccumulator {
+
+    final long[] histogram = new long[LatencyHistogram.BUCKET_COUNT];
+
+    long numberOfCalls;
+    long totalDuration;
+    long minDuration;
+    long maxDuration;
+    long numberOfFastCalls;
+    final long[] outcomeCounts = new long[CallOutcome.values().length];
+
+    //the outcome counters of the current slot (filled by the slot before #add gets called)
+    final long[] slotOutcomeCounts = new long[CallOutcome.values().length];
+
+    WindowAccumulator() {
+        reset();
+    }
+
+    void reset() {
+        Arrays.fill(histogram, 0L);
+        numberOfCalls = 0;
+        totalDuration = 0;
+        minDuration = Long.MAX_VALUE;
+        maxDuration = Long.MIN_VALUE;
+        numberOfFastCalls = 0;
+        Arrays.fill(outcomeCounts, 0L);
+    }
+
+    void add(long slotCalls, long slotTotalDuration, long slotMinDuration, long slotMaxDuration, long slotFastCalls) {
+        numberOfFastCalls += slotFastCalls;
+        for (int i = 0; i < outcomeCounts.length; i++) {
+            outcomeCounts[i] += slotOutcomeCounts[i];
+        }
+
+        if (slotCalls == 0) {
+            return;
+        }
+        numberOfCalls += slotCalls;
+        totalDuration += slotTotalDuration;
+        minDuration = Math.min(minDuration, slotMinDuration);
+        maxDuration = Math.max(maxDuration, slotMaxDuration);
+    }
+
+    //a bucket of the histogram might exceed the range of the window (or a merged minute contains further calls)
+    long limitToDurations(long percentileValue) {
+        if (numberOfCalls == 0) {
+            return 0L;
+        }
+        return Math.max(minDuration, Math.min(percentileValue, maxDuration));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.AdaptiveConcurrencyLimit;
+import org.os890.cdi.addon.circuitbreaker.impl.AdaptiveConcurrencyLimiter;
+import org.os890.cdi.addon.circuitbreaker.impl.InvocationPlanCache;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.api.ConcurrencyGauge;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AdaptiveConcurrencyLimit} - the {@link AdaptiveConcurrencyLimiter} standalone and via the interceptor.
+ */
+@EnableTestBeans
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Inject
+    private BulkheadService bulkheadService;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void limitGrowsWhileLatencyIsStable() {
+        //sample windows without min. length - the limit gets updated once there are enough samples
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 2, 6, 150, 0);
+
+        for (int window = 0; window < 5; window++) {
+            executeWindow(limiter, MILLISECOND, CallOutcome.SUCCESS);
+        }
+        Assertions.assertEquals(6, limiter.getMaxConcurrentCalls());
+        Assertions.assertEquals(0, limiter.getInFlightCalls());
+    }
+
+    @Test
+    void limitJustGrowsIfItWasReached() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 2, 6, 150, 0);
+
+        //sequential calls don't reach the limit
+        executeWindowBelowLimit(limiter, MILLISECOND);
+        Assertions.assertEquals(4, limiter.getMaxConcurrentCalls());
+
+        executeWindow(limiter, MILLISECOND, CallOutcome.SUCCESS);
+        Assertions.assertEquals(5, limiter.getMaxConcurrentCalls());
+    }
+
+    @Test
+    void limitGetsCutIfLatencyClimbs() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 20, 150, 0);
+
+        executeWindow(limiter, MILLISECOND, CallOutcome.SUCCESS);
+        Assertions.assertEquals(11, limiter.getMaxConcurrentCalls());
+
+        executeWindow(limiter, 5 * MILLISECOND, CallOutcome.SUCCESS);
+        Assertions.assertEquals(9, limiter.getMaxConcurrentCalls());
+
+        //timeouts cut the limit independent of the latency
+        Assertions.assertTrue(limiter.tryAcquire());
+        limiter.release(MILLISECOND, CallOutcome.TIMEOUT);
+        Assertions.assertEquals(8, limiter.getMaxConcurrentCalls());
+    }
+
+    @Test
+    void callsExceedingTheLimitGetRejected() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, 150, TimeUnit.HOURS.toNanos(1));
+
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertFalse(limiter.tryAcquire());
+        Assertions.assertEquals(1, limiter.getRejectedCalls());
+
+        //calls rejected by the circuit don't provide a latency sample, but release the permit
+        limiter.release(0, CallOutcome.REJECTED);
+        Assertions.assertEquals(1, limiter.getInFlightCalls());
+    }
+
+    @Test
+    void interceptorRegistersAdaptiveLimit() throws NoSuchMethodException {
+        Assertions.assertEquals("adaptive", bulkheadService.adaptiveCall());
+
+        ConcurrencyGauge concurrencyGauge = metricsStorage.getConcurrencyGauge(
+                InvocationPlanCache.createKey(BulkheadService.class.getMethod("adaptiveCall")));
+        Assertions.assertTrue(concurrencyGauge instanceof AdaptiveConcurrencyLimiter);
+        Assertions.assertEquals(5, concurrencyGauge.getMaxConcurrentCalls());
+        Assertions.assertEquals(0, concurrencyGauge.getInFlightCalls());
+    }
+
+    //reaches the limit (so it counts as used) and provides exactly the min. number of samples of a window
+    private static void executeWindow(AdaptiveConcurrencyLimiter limiter, long durationNanos, CallOutcome outcome) {
+        int samples = 0;
+        while (samples < AdaptiveConcurrencyLimiter.MIN_SAMPLES) {
+            int concurrentCalls = limiter.getMaxConcurrentCalls();
+
+            for (int i = 0; i < concurrentCalls; i++) {
+                Assertions.assertTrue(limiter.tryAcquire());
+            }
+            for (int i = 0; i < concurrentCalls; i++) {
+                if (samples < AdaptiveConcurrencyLimiter.MIN_SAMPLES) {
+                    limiter.release(durationNanos, outcome);
+                    samples++;
+                } else {
+                    limiter.release(0, CallOutcome.REJECTED); //no sample
+                }
+            }
+        }
+    }
+
+    private static void executeWindowBelowLimit(AdaptiveConcurrencyLimiter limiter, long durationNanos) {
+        for (int i = 0; i < AdaptiveConcurrencyLimiter.MIN_SAMPLES; i++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+            limiter.release(durationNanos, CallOutcome.SUCCESS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.os890.cdi.addon.circuitbreaker.api.AdaptiveConcurrencyLimit;
+import org.os890.cdi.addon.circuitbreaker.api.ExecutionFailure;
+import org.os890.cdi.addon.circuitbreaker.api.MaxConcurrentCalls;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test service with a limited number of concurrent executions.
+ */
+@ApplicationScoped
+public class BulkheadService {
+
+    /**
+     * A protected method which rejects calls immediately once 2 calls are executed.
+     *
+     * @param started gets counted down once the method is executed
+     * @param release the method blocks until the latch is released
+     * @return a result string
+     * @throws InterruptedException if the thread gets interrupted
+     */
+    @OverloadProtection
+    @MaxConcurrentCalls(2)
+    @ExecutionFailure(after = 10, timeUnit = TimeUnit.SECONDS)
+    public String call(CountDownLatch started, CountDownLatch release) throws InterruptedException {
+        started.countDown();
+        release.await();
+        return "bulkhead";
+    }
+
+    /**
+     * A protected method which waits up to 5 seconds for a permit.
+     *
+     * @param started gets counted down once the method is executed
+     * @param release the method blocks until the latch is released
+     * @return a result string
+     * @throws InterruptedException if the thread gets interrupted
+     */
+    @OverloadProtection(collectMetrics = false, engine = OverloadProtection.Engine.NATIVE)
+    @MaxConcurrentCalls(value = 1, maxWait = 5, timeUnit = TimeUnit.SECONDS)
+    @ExecutionFailure(after = 10, timeUnit = TimeUnit.SECONDS)
+    public String waitingCall(CountDownLatch started, CountDownLatch release) throws InterruptedException {
+        started.countDown();
+        release.await();
+        return "waiting";
+    }
+
+    /**
+     * A protected method with an adaptive concurrency limit.
+     *
+     * @return a result string
+     */
+    @OverloadProtection(collectMetrics = false)
+    @AdaptiveConcurrencyLimit(initialLimit = 5, maxLimit = 10)
+    public String adaptiveCall() {
+        return "adaptive";
+    }
+}
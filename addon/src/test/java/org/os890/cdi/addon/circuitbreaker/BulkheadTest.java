@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.MaxConcurrentCalls;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.impl.Bulkhead;
+import org.os890.cdi.addon.circuitbreaker.impl.InvocationPlanCache;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.api.ConcurrencyGauge;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link MaxConcurrentCalls} - the {@link Bulkhead} standalone and via the interceptor.
+ */
+@EnableTestBeans
+class BulkheadTest {
+
+    @Inject
+    private BulkheadService bulkheadService;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void permitsAreLimited() {
+        Bulkhead bulkhead = new Bulkhead(2, 0);
+
+        Assertions.assertTrue(bulkhead.tryAcquire());
+        Assertions.assertTrue(bulkhead.tryAcquire());
+        Assertions.assertFalse(bulkhead.tryAcquire());
+        Assertions.assertEquals(2, bulkhead.getInFlightCalls());
+        Assertions.assertEquals(1, bulkhead.getRejectedCalls());
+
+        bulkhead.release(0, CallOutcome.SUCCESS);
+        Assertions.assertEquals(1, bulkhead.getInFlightCalls());
+        Assertions.assertTrue(bulkhead.tryAcquire());
+    }
+
+    @Test
+    void callsExceedingTheLimitGetRejected() throws Exception {
+        String key = InvocationPlanCache.createKey(
+                BulkheadService.class.getMethod("call", CountDownLatch.class, CountDownLatch.class));
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> firstCall = executorService.submit(() -> bulkheadService.call(started, release));
+            Future<String> secondCall = executorService.submit(() -> bulkheadService.call(started, release));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Assertions.assertThrows(ServiceOverloadedException.class,
+                    () -> bulkheadService.call(new CountDownLatch(1), new CountDownLatch(0)));
+
+            ConcurrencyGauge concurrencyGauge = metricsStorage.getConcurrencyGauge(key);
+            Assertions.assertEquals(2, concurrencyGauge.getMaxConcurrentCalls());
+            Assertions.assertEquals(2, metricsStorage.calcInFlightCalls().get(key));
+            Assertions.assertEquals(1L, metricsStorage.calcRejectedConcurrentCalls().get(key));
+
+            release.countDown();
+            Assertions.assertEquals("bulkhead", firstCall.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("bulkhead", secondCall.get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assertions.assertEquals(0, metricsStorage.calcInFlightCalls().get(key));
+        Assertions.assertEquals("bulkhead", bulkheadService.call(new CountDownLatch(1), new CountDownLatch(0)));
+    }
+
+    @Test
+    void callsWaitForAPermit() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<String> firstCall = executorService.submit(() -> bulkheadService.waitingCall(started, release));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }).start();
+
+            //gets the permit of the first call once it's released
+            Assertions.assertEquals("waiting", bulkheadService.waitingCall(new CountDownLatch(1), release));
+            Assertions.assertEquals("waiting", firstCall.get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
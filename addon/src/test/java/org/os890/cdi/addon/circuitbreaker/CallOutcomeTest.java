@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import dev.failsafe.TimeoutExceededException;
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.impl.InvocationPlanCache;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.impl.KeyFilter;
+import org.os890.cdi.addon.metrics.impl.MetricsSnapshot;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.List;
+
+/**
+ * Integration test for the per-method counters of the {@link CallOutcome}s.
+ */
+@EnableTestBeans
+class CallOutcomeTest {
+
+    @Inject
+    private MeteredService meteredService;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void outcomesGetCountedPerMethod() throws Exception {
+        String key = InvocationPlanCache.createKey(MeteredService.class.getMethod("call"));
+
+        meteredService.call();
+        meteredService.setShouldFail(true);
+
+        long exceptions = 0;
+        long rejections = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                meteredService.call();
+            } catch (ServiceOverloadedException e) {
+                rejections++;
+            } catch (RuntimeException e) {
+                exceptions++;
+            }
+        }
+
+        MetricsSnapshot.MethodStats stats = awaitOutcomes(key, 11);
+        Assertions.assertEquals(1, stats.getOutcomeCount(CallOutcome.SUCCESS));
+        Assertions.assertEquals(exceptions, stats.getOutcomeCount(CallOutcome.EXCEPTION));
+        Assertions.assertEquals(rejections, stats.getOutcomeCount(CallOutcome.REJECTED));
+        Assertions.assertEquals(0, stats.getOutcomeCount(CallOutcome.TIMEOUT));
+        Assertions.assertTrue(rejections > 0);
+        Assertions.assertEquals(rejections / 11d, stats.getOutcomeRatio(CallOutcome.REJECTED), 0.0001);
+        //rejected calls don't have a duration
+        Assertions.assertEquals(1 + exceptions, stats.getNumberOfCalls() + stats.getNumberOfFastCalls());
+    }
+
+    @Test
+    void timeoutsGetCounted() throws Exception {
+        String key = InvocationPlanCache.createKey(MeteredService.class.getMethod("slowCall"));
+
+        Assertions.assertThrows(TimeoutExceededException.class, () -> meteredService.slowCall());
+
+        MetricsSnapshot.MethodStats stats = awaitOutcomes(key, 1);
+        Assertions.assertEquals(1, stats.getOutcomeCount(CallOutcome.TIMEOUT));
+        Assertions.assertEquals(0, stats.getOutcomeCount(CallOutcome.SUCCESS));
+        Assertions.assertEquals(1, stats.getNumberOfCalls());
+    }
+
+    @Test
+    void filteredCallsGetCounted() throws Exception {
+        String key = InvocationPlanCache.createKey(MeteredService.class.getMethod("fastCall"));
+
+        for (int i = 0; i < 5; i++) {
+            meteredService.fastCall();
+        }
+
+        MetricsSnapshot.MethodStats stats = awaitOutcomes(key, 5);
+        Assertions.assertEquals(5, stats.getOutcomeCount(CallOutcome.SUCCESS));
+        Assertions.assertEquals(1d, stats.getOutcomeRatio(CallOutcome.SUCCESS), 0.0001);
+        //just the durations get filtered
+        Assertions.assertEquals(0, stats.getNumberOfCalls());
+        Assertions.assertEquals(5, stats.getNumberOfFastCalls());
+    }
+
+    private MetricsSnapshot.MethodStats awaitOutcomes(String key, long expectedCallCount) throws InterruptedException {
+        MetricsSnapshot.MethodStats result = null;
+        for (int i = 0; i < 100; i++) {
+            result = metricsStorage.snapshot(KeyFilter.keys(List.of(key)), 60).getStats(key);
+
+            if (result != null && countOutcomes(result) >= expectedCallCount) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        Assertions.assertNotNull(result);
+        return result;
+    }
+
+    private static long countOutcomes(MetricsSnapshot.MethodStats stats) {
+        long result = 0;
+        for (CallOutcome outcome : CallOutcome.values()) {
+            result += stats.getOutcomeCount(outcome);
+        }
+        return result;
+    }
+}
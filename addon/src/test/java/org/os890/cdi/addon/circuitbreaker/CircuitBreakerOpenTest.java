@@ -91,4 +91,28 @@ class CircuitBreakerOpenTest {
         Assertions.assertThrows(ServiceOverloadedException.class,
                 () -> protectedService.doWork());
     }
+
+    /**
+     * Verifies that calls which get rejected by an open circuit fail fast with a
+     * {@link ServiceOverloadedException} which doesn't contain a stack trace (default rejection mode).
+     */
+    @Test
+    void openCircuitRejectsCallsWithoutStackTrace() {
+        protectedService.setShouldFail(true);
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                protectedService.doWork();
+            } catch (ServiceOverloadedException e) {
+                break;
+            } catch (RuntimeException e) {
+                // counting toward threshold
+            }
+        }
+
+        ServiceOverloadedException rejection = Assertions.assertThrows(ServiceOverloadedException.class,
+                () -> protectedService.doWork());
+        Assertions.assertEquals(0, rejection.getStackTrace().length);
+        Assertions.assertTrue(rejection.getMessage().endsWith(ProtectedService.class.getName() + "#doWork"));
+    }
 }
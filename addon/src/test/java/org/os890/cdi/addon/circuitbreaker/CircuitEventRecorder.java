@@ -17,32 +17,39 @@
  * under the License.
  */
 
-package org.os890.cdi.addon.metrics.impl;
+package org.os890.cdi.addon.circuitbreaker;
 
-import org.os890.cdi.addon.circuitbreaker.api.ProtectedCallEvent;
-
-import jakarta.ejb.Asynchronous;
-import jakarta.ejb.Stateless;
+import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
-import jakarta.inject.Inject;
+
+import org.os890.cdi.addon.circuitbreaker.api.CircuitEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Stateless EJB that asynchronously observes {@link ProtectedCallEvent}s
- * and records them in the {@link MetricsStorage}.
+ * Test bean which records all {@link CircuitEvent}s.
  */
-@Stateless
-public class AsyncProtectedCallObserver {
+@ApplicationScoped
+public class CircuitEventRecorder {
+
+    private final List<CircuitEvent> circuitEvents = new CopyOnWriteArrayList<>();
 
-    @Inject
-    private MetricsStorage metricsStorage;
+    /**
+     * Records the given event.
+     *
+     * @param circuitEvent the circuit event
+     */
+    public void onCircuitEvent(@Observes CircuitEvent circuitEvent) {
+        circuitEvents.add(circuitEvent);
+    }
 
     /**
-     * Observes a protected call event and records it asynchronously.
+     * Returns the recorded events.
      *
-     * @param protectedCallEvent the event to record
+     * @return the circuit events
      */
-    @Asynchronous
-    public void onProtectedCall(@Observes ProtectedCallEvent protectedCallEvent) {
-        metricsStorage.record(protectedCallEvent.getKey(), protectedCallEvent.getCurrentMethod(), protectedCallEvent.getDuration());
+    public List<CircuitEvent> getCircuitEvents() {
+        return circuitEvents;
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.metrics.api.FilterMethodsFasterThan;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+import org.os890.cdi.addon.metrics.impl.StatsEntry;
+
+/**
+ * Test for the (sub-millisecond) thresholds of {@link FilterMethodsFasterThan}.
+ */
+class FilterMethodsFasterThanTest {
+
+    @Test
+    void thresholdGetsConvertedToMicroseconds() throws NoSuchMethodException {
+        Assertions.assertEquals(5_000L, thresholdOf("filteredInMs"));
+        Assertions.assertEquals(250L, thresholdOf("filteredInMicros"));
+        Assertions.assertEquals(-1L, thresholdOf("notRecorded"));
+        Assertions.assertEquals(1_000L, FilterMethodsFasterThan.Threshold.toMicros(FilterMethodsFasterThan.DEFAULT));
+    }
+
+    @Test
+    void subMillisecondCallsGetRecorded() throws NoSuchMethodException {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        String key = "test#subMillisecond";
+
+        metricsStorage.record(key, AnnotatedMethods.class.getMethod("filteredInMicros"), 100);
+        metricsStorage.record(key, AnnotatedMethods.class.getMethod("filteredInMicros"), 400);
+        metricsStorage.record(key, AnnotatedMethods.class.getMethod("filteredInMicros"), 800);
+
+        long timeSlot = MetricsEntry.createCurrentKey();
+        Assertions.assertEquals(2, metricsStorage.getOrCreateEntry(key).getStatsEntries(timeSlot).stream()
+                .mapToInt(StatsEntry::getNumberOfCalls).sum());
+        Assertions.assertEquals(400L, metricsStorage.calcOverallMin(timeSlot).get(key));
+    }
+
+    private static long thresholdOf(String methodName) throws NoSuchMethodException {
+        return FilterMethodsFasterThan.Threshold.toMicros(
+                AnnotatedMethods.class.getMethod(methodName).getAnnotation(FilterMethodsFasterThan.class));
+    }
+
+    /**
+     * Methods with different thresholds.
+     */
+    public static class AnnotatedMethods {
+
+        /**
+         * Threshold in milliseconds.
+         */
+        @FilterMethodsFasterThan(ms = 5)
+        public void filteredInMs() {
+            //nothing to do
+        }
+
+        /**
+         * Threshold in microseconds.
+         */
+        @FilterMethodsFasterThan(micros = 250)
+        public void filteredInMicros() {
+            //nothing to do
+        }
+
+        /**
+         * Negative threshold (no metrics).
+         */
+        @FilterMethodsFasterThan(ms = -1)
+        public void notRecorded() {
+            //nothing to do
+        }
+    }
+}
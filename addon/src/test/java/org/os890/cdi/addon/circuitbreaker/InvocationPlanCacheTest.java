@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.impl.InvocationPlan;
+import org.os890.cdi.addon.circuitbreaker.impl.InvocationPlanCache;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration test that verifies {@link InvocationPlan}s are built once per method.
+ */
+@EnableTestBeans
+class InvocationPlanCacheTest {
+
+    @Inject
+    private InvocationPlanCache invocationPlanCache;
+
+    @Inject
+    private ProtectedService protectedService;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void planIsBuiltOncePerMethod() throws NoSuchMethodException {
+        Method method = ProtectedService.class.getMethod("doWork");
+
+        InvocationPlan invocationPlan = invocationPlanCache.getInvocationPlanFor(method);
+
+        Assertions.assertSame(invocationPlan, invocationPlanCache.getInvocationPlanFor(method));
+        Assertions.assertSame(invocationPlan, invocationPlanCache.getInvocationPlanFor(ProtectedService.class.getMethod("doWork")));
+        Assertions.assertEquals("class " + ProtectedService.class.getName() + "#doWork", invocationPlan.getKey());
+        Assertions.assertFalse(invocationPlan.isCollectMetrics());
+    }
+
+    @Test
+    void keyContainsParameterTypes() throws NoSuchMethodException {
+        Method method = ProtectedService.class.getMethod("setShouldFail", boolean.class);
+
+        Assertions.assertEquals("class " + ProtectedService.class.getName() + "#setShouldFail|boolean",
+                InvocationPlanCache.createKey(method));
+    }
+
+    @Test
+    void filterThresholdOfAMethodOverridesTheGlobalOne() throws NoSuchMethodException {
+        InvocationPlan defaultPlan = invocationPlanCache.getInvocationPlanFor(MeteredService.class.getMethod("call"));
+        InvocationPlan annotatedPlan = invocationPlanCache.getInvocationPlanFor(MeteredService.class.getMethod("fastCall"));
+
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), defaultPlan.getFilterMethodsFasterThanNanos());
+        //higher than the global threshold
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(1), annotatedPlan.getFilterMethodsFasterThanNanos());
+    }
+
+    @Test
+    void storageUsesTheFilterThresholdOfThePlan() throws NoSuchMethodException {
+        InvocationPlan invocationPlan = invocationPlanCache.getInvocationPlanFor(MeteredService.class.getMethod("call"));
+
+        //slower than the default threshold (1 ms), so the duration gets recorded
+        metricsStorage.record(invocationPlan.getMethodId(), 50_000, CallOutcome.SUCCESS);
+
+        Assertions.assertEquals(50_000L, metricsStorage.calcOverallMax().get(invocationPlan.getKey()));
+    }
+
+    @Test
+    void idlePlansGetEvictedTogetherWithTheirCircuitBreaker() throws NoSuchMethodException {
+        Method method = ProtectedService.class.getMethod("doWork");
+        InvocationPlan invocationPlan = invocationPlanCache.getInvocationPlanFor(method);
+
+        Assertions.assertSame(invocationPlan, invocationPlanCache.getInvocationPlanFor(method));
+        Assertions.assertEquals(0, invocationPlanCache.evictPlansInvokedBefore(Long.MIN_VALUE));
+        Assertions.assertTrue(invocationPlanCache.evictPlansInvokedBefore(invocationPlan.getLastInvocation() + 1) > 0);
+
+        InvocationPlan newInvocationPlan = invocationPlanCache.getInvocationPlanFor(method);
+        Assertions.assertNotSame(invocationPlan, newInvocationPlan);
+        Assertions.assertNotSame(invocationPlan.getCircuitBreaker(), newInvocationPlan.getCircuitBreaker());
+    }
+
+    @Test
+    void plansOfOpenCircuitsDontGetEvicted() throws NoSuchMethodException {
+        Method method = ProtectedService.class.getMethod("doWork");
+        InvocationPlan invocationPlan = invocationPlanCache.getInvocationPlanFor(method);
+        invocationPlan.getCircuitBreaker().open();
+
+        try {
+            //rejected calls don't mark the plan as invoked
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertThrows(ServiceOverloadedException.class, () -> protectedService.doWork());
+            }
+
+            invocationPlanCache.evictPlansInvokedBefore(invocationPlan.getLastInvocation() + 1);
+            Assertions.assertSame(invocationPlan, invocationPlanCache.getInvocationPlanFor(method));
+            Assertions.assertFalse(invocationPlan.isCircuitClosed());
+        } finally {
+            invocationPlan.getCircuitBreaker().close();
+        }
+
+        Assertions.assertTrue(invocationPlanCache.evictPlansInvokedBefore(invocationPlan.getLastInvocation() + 1) > 0);
+        Assertions.assertNotSame(invocationPlan, invocationPlanCache.getInvocationPlanFor(method));
+    }
+}
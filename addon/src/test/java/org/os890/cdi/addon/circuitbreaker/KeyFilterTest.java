@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.metrics.impl.KeyFilter;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsSnapshot;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test for the window- and {@link KeyFilter}-based queries of {@link MetricsStorage}.
+ */
+class KeyFilterTest {
+
+    private static final String PAYMENT_KEY = "class com.acme.payment.PaymentService#charge|long";
+    private static final String REFUND_KEY = "class com.acme.payment.refund.RefundService#refund";
+    private static final String PAYMENT_GATEWAY_KEY = "interface com.acme.paymentgateway.Gateway#send";
+    private static final String ORDER_KEY = "class com.acme.order.OrderService#order";
+
+    @Test
+    void packageFilterIncludesSubPackagesOnly() {
+        MetricsStorage metricsStorage = createStorage();
+
+        Map<String, Long> maxPerKey = metricsStorage.calcOverallMax(KeyFilter.packageName("com.acme.payment"), 0, 1_100);
+
+        Assertions.assertEquals(Map.of(PAYMENT_KEY, 300L, REFUND_KEY, 400L), maxPerKey);
+    }
+
+    @Test
+    void classPrefixAndExplicitKeys() {
+        MetricsStorage metricsStorage = createStorage();
+
+        //a plain prefix of the class name
+        Assertions.assertEquals(Set.of(PAYMENT_KEY, REFUND_KEY, PAYMENT_GATEWAY_KEY),
+                metricsStorage.calcOverallMax(KeyFilter.classPrefix("com.acme.payment"), 0, 1_100).keySet());
+        Assertions.assertEquals(Map.of(PAYMENT_GATEWAY_KEY, 500L),
+                metricsStorage.calcOverallMax(KeyFilter.classPrefix("com.acme.paymentgateway.Gateway#"), 0, 1_100));
+        Assertions.assertEquals(Map.of(ORDER_KEY, 600L),
+                metricsStorage.calcOverallMax(KeyFilter.keys(List.of(ORDER_KEY, "unknown")), 0, 1_100));
+    }
+
+    @Test
+    void windowExcludesOlderAndNewerSeconds() {
+        MetricsStorage metricsStorage = createStorage();
+
+        //the first call of the payment key was recorded in the second 1_000
+        Assertions.assertEquals(300L, metricsStorage.calcOverallMin(KeyFilter.keys(List.of(PAYMENT_KEY)), 1_001, 1_100).get(PAYMENT_KEY));
+        Assertions.assertEquals(100L, metricsStorage.calcOverallMax(KeyFilter.keys(List.of(PAYMENT_KEY)), 1_000, 1_000).get(PAYMENT_KEY));
+        //no call of the payment key within the window
+        Assertions.assertTrue(metricsStorage.calcOverallMin(KeyFilter.keys(List.of(PAYMENT_KEY)), 1_050, 1_100).isEmpty());
+        Assertions.assertTrue(metricsStorage.calcOverallMax(KeyFilter.keys(List.of(PAYMENT_KEY)), 1_050, 1_100).isEmpty());
+
+        MetricsSnapshot snapshot = metricsStorage.snapshot(KeyFilter.packageName("com.acme.payment"), 1_050, 1_100);
+        Assertions.assertEquals(2, snapshot.getStatsPerKey().size());
+        Assertions.assertEquals(0, snapshot.getStats(PAYMENT_KEY).getNumberOfCalls());
+        Assertions.assertNull(snapshot.getStats(ORDER_KEY));
+    }
+
+    private static MetricsStorage createStorage() {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        record(metricsStorage, PAYMENT_KEY, 1_000, 100);
+        record(metricsStorage, PAYMENT_KEY, 1_001, 300);
+        record(metricsStorage, REFUND_KEY, 1_001, 400);
+        record(metricsStorage, PAYMENT_GATEWAY_KEY, 1_002, 500);
+        record(metricsStorage, ORDER_KEY, 1_003, 600);
+        return metricsStorage;
+    }
+
+    private static void record(MetricsStorage metricsStorage, String key, long timeSlot, long duration) {
+        MetricsEntry metricsEntry = metricsStorage.getOrCreateEntry(key);
+        metricsEntry.recordSlowCall(timeSlot, duration);
+    }
+}
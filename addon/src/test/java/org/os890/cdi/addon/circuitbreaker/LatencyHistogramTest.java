@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.metrics.impl.LatencyHistogram;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Test for the bucket layout of {@link LatencyHistogram} and the percentiles of {@link MetricsStorage}.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < LatencyHistogram.SUB_BUCKET_COUNT * 2; value++) {
+            Assertions.assertEquals(value, LatencyHistogram.highestEquivalentValue(LatencyHistogram.toBucketIndex(value)));
+        }
+    }
+
+    @Test
+    void relativeErrorIsBounded() {
+        int previousBucketIndex = 0;
+        for (long value = 1; value < (1L << 32); value = value * 3 / 2 + 1) {
+            int bucketIndex = LatencyHistogram.toBucketIndex(value);
+            long highestEquivalentValue = LatencyHistogram.highestEquivalentValue(bucketIndex);
+
+            Assertions.assertTrue(bucketIndex >= previousBucketIndex);
+            Assertions.assertTrue(highestEquivalentValue >= value);
+            Assertions.assertTrue(highestEquivalentValue - value <= value / LatencyHistogram.SUB_BUCKET_COUNT,
+                    "value: " + value + " reported: " + highestEquivalentValue);
+            previousBucketIndex = bucketIndex;
+        }
+        Assertions.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.toBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void mergedHistogramsProvidePercentiles() {
+        AtomicIntegerArray firstSecond = LatencyHistogram.create();
+        AtomicIntegerArray secondSecond = LatencyHistogram.create();
+        for (int i = 1; i <= 500; i++) {
+            LatencyHistogram.record(firstSecond, i);
+            LatencyHistogram.record(secondSecond, 500 + i);
+        }
+
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        LatencyHistogram.mergeInto(firstSecond, counts);
+        LatencyHistogram.mergeInto(secondSecond, counts);
+
+        assertAround(500, LatencyHistogram.valueAtPercentile(counts, 0.5));
+        assertAround(990, LatencyHistogram.valueAtPercentile(counts, 0.99));
+        assertAround(999, LatencyHistogram.valueAtPercentile(counts, 0.999));
+        Assertions.assertEquals(-1, LatencyHistogram.valueAtPercentile(new long[LatencyHistogram.BUCKET_COUNT], 0.5));
+    }
+
+    @Test
+    void metricsStorageReportsPercentilesAboveNinetyNine() {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        for (int i = 1; i <= 1_000; i++) {
+            //one slow outlier per 1000 calls, spread across two seconds
+            metricsStorage.getOrCreateEntry("key").recordSlowCall(1_000 + i % 2, i == 1_000 ? 5_000 : 10);
+        }
+
+        Assertions.assertEquals(10L, metricsStorage.calcPercentile(0.5, 1_001).get("key"));
+        Assertions.assertEquals(10L, metricsStorage.calcPercentile(0.99, 1_001).get("key"));
+        assertAround(5_000, metricsStorage.calcPercentile(1.0, 1_001).get("key"));
+        //the outlier was recorded in the second 1_000
+        Assertions.assertEquals(10L, metricsStorage.calcPercentile(1.0, 1_001, 1_001).get("key"));
+        Assertions.assertTrue(metricsStorage.calcPercentile(0.5, 999).isEmpty());
+    }
+
+    private static void assertAround(long expected, long actual) {
+        Assertions.assertTrue(actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKET_COUNT,
+                "expected: ~" + expected + " actual: " + actual);
+    }
+}
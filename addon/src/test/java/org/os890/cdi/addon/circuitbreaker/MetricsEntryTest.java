@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.metrics.impl.LatencyHistogram;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.StatsEntry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for the ring of per-second slots of {@link MetricsEntry}.
+ */
+class MetricsEntryTest {
+
+    private static final long CAPACITY = 12 * 60 * 60;
+    private static final int SPARSE_KEY_COUNT = 2_000;
+    private static final int DENSE_KEY_COUNT = 4;
+    private static final long DENSE_PERIOD = 2 * 60 * 60;
+
+    @Test
+    void callsOfTheSameSecondShareOneSlot() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+
+        metricsEntry.recordSlowCall(1_000, 100);
+        metricsEntry.recordSlowCall(1_000, 300);
+        metricsEntry.recordSlowCall(1_001, 200);
+
+        Map<Long, StatsEntry> statsEntries = metricsEntry.getStatsEntriesPerSecond();
+        Assertions.assertEquals(2, statsEntries.size());
+
+        StatsEntry statsEntry = statsEntries.get(1_000L);
+        Assertions.assertEquals(2, statsEntry.getNumberOfCalls());
+        Assertions.assertEquals(100L, statsEntry.getMinDuration());
+        Assertions.assertEquals(300L, statsEntry.getMaxDuration());
+        Assertions.assertEquals(200d, statsEntry.getAverageDuration());
+    }
+
+    @Test
+    void reusedSlotEvictsTheOldSecond() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+
+        metricsEntry.recordSlowCall(1_000, 100);
+        metricsEntry.recordSlowCall(1_000 + CAPACITY, 500);
+
+        Map<Long, StatsEntry> statsEntries = metricsEntry.getStatsEntriesPerSecond();
+        Assertions.assertEquals(1, statsEntries.size());
+        Assertions.assertEquals(500L, statsEntries.get(1_000 + CAPACITY).getMinDuration());
+
+        //already evicted
+        metricsEntry.recordSlowCall(1_000, 100);
+        Assertions.assertEquals(1, metricsEntry.getStatsEntries().size());
+    }
+
+    @Test
+    void visitorSkipsSlotsAfterTheBorder() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+
+        metricsEntry.recordSlowCall(1_000, 100);
+        metricsEntry.recordSlowCall(1_001, 200);
+        metricsEntry.recordSlowCall(1_002, 300);
+
+        long[] callsAndTotal = new long[2];
+        metricsEntry.visitSlots(1_001, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+            callsAndTotal[0] += numberOfCalls;
+            callsAndTotal[1] += totalDuration;
+        });
+
+        Assertions.assertEquals(2, callsAndTotal[0]);
+        Assertions.assertEquals(300, callsAndTotal[1]);
+    }
+
+    @Test
+    void expiredChunksGetReleased() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        metricsEntry.recordSlowCall(1_000, 100);
+        metricsEntry.recordSlowCall(5_000, 100);
+        Assertions.assertEquals(128, metricsEntry.getAllocatedSlotCount());
+
+        //just the chunk of the recent seconds (with a histogram) of 5_000 is expired (the last chunk has 40 slots)
+        Assertions.assertEquals(40, metricsEntry.releaseExpiredSlots(-1, 1_000 + CAPACITY - 1));
+        Assertions.assertEquals(128, metricsEntry.getAllocatedSlotCount());
+
+        //just the chunks of the seconds which expired since the previous time slot get checked
+        Assertions.assertEquals(0, metricsEntry.releaseExpiredSlots(1_000 + CAPACITY + 100, 1_000 + CAPACITY + 200));
+        Assertions.assertEquals(128, metricsEntry.getAllocatedSlotCount());
+
+        //the seconds and the recent seconds of 1_000
+        Assertions.assertEquals(64 + 64, metricsEntry.releaseExpiredSlots(1_000 + CAPACITY - 1, 1_000 + CAPACITY + 200));
+        Assertions.assertEquals(64, metricsEntry.getAllocatedSlotCount());
+        Assertions.assertFalse(metricsEntry.isEmpty());
+
+        Assertions.assertTrue(metricsEntry.releaseExpiredSlots(1_000 + CAPACITY + 200, 5_000 + CAPACITY + 200) >= 64);
+        Assertions.assertEquals(0, metricsEntry.getAllocatedSlotCount());
+        Assertions.assertTrue(metricsEntry.isEmpty());
+
+        metricsEntry.recordSlowCall(5_000 + CAPACITY + 200, 100);
+        Assertions.assertEquals(1, metricsEntry.getStatsEntries().size());
+    }
+
+    @Test
+    void windowUsesMinutesAndHoursForCompletePeriods() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        long firstTimeSlot = 10 * 3_600 + 1_234; //not aligned
+        long lastTimeSlot = firstTimeSlot + 5 * 3_600;
+
+        for (long timeSlot = firstTimeSlot; timeSlot <= lastTimeSlot; timeSlot += 7) {
+            metricsEntry.recordSlowCall(timeSlot, timeSlot % 1_000);
+        }
+
+        long[] perSecond = new long[4];
+        metricsEntry.visitSlots(lastTimeSlot, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+            perSecond[0] += numberOfCalls;
+            perSecond[1] += totalDuration;
+            perSecond[2] = Math.max(perSecond[2], maxDuration);
+            perSecond[3]++;
+        });
+
+        long[] perWindow = new long[4];
+        metricsEntry.visitWindow(0, lastTimeSlot, (timeSlot, numberOfCalls, totalDuration, minDuration, maxDuration) -> {
+            perWindow[0] += numberOfCalls;
+            perWindow[1] += totalDuration;
+            perWindow[2] = Math.max(perWindow[2], maxDuration);
+            perWindow[3]++;
+        });
+
+        Assertions.assertEquals(perSecond[0], perWindow[0]);
+        Assertions.assertEquals(perSecond[1], perWindow[1]);
+        Assertions.assertEquals(perSecond[2], perWindow[2]);
+        //4 complete hours, less than 2 hours of minutes and less than 2 minutes of seconds
+        Assertions.assertTrue(perWindow[3] < 4 + 2 * 60 + 2 * 60 / 7 + 2, "visited slots: " + perWindow[3]);
+
+        long[] histogram = new long[LatencyHistogram.BUCKET_COUNT];
+        int mergedSlots = metricsEntry.mergeHistograms(0, lastTimeSlot, histogram);
+        Assertions.assertEquals(perSecond[0], Arrays.stream(histogram).sum());
+        //the seconds at the end of the window are recent ones (with their own histogram)
+        Assertions.assertEquals(perWindow[3], mergedSlots);
+    }
+
+    @Test
+    void recentSecondsOfAWindowUseTheirOwnHistogram() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        for (long timeSlot = 960; timeSlot < 1_020; timeSlot++) { //a complete minute
+            metricsEntry.recordSlowCall(timeSlot, timeSlot < 1_000 ? 100 : 10_000);
+        }
+
+        long[] histogram = new long[LatencyHistogram.BUCKET_COUNT];
+        Assertions.assertEquals(10, metricsEntry.mergeHistograms(1_000, 1_009, histogram));
+        Assertions.assertEquals(10, Arrays.stream(histogram).sum());
+        //the faster calls of the minute aren't within the window
+        Assertions.assertEquals(0, histogram[LatencyHistogram.toBucketIndex(100)]);
+
+        //no call within the window
+        Assertions.assertEquals(0, metricsEntry.mergeHistograms(1_020, 1_030, new long[LatencyHistogram.BUCKET_COUNT]));
+    }
+
+    @Test
+    void olderSecondsOfAWindowUseTheHistogramOfTheirMinute() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        for (long timeSlot = 960; timeSlot < 1_020; timeSlot++) { //a complete minute
+            metricsEntry.recordSlowCall(timeSlot, 100);
+        }
+        //the minute isn't within the largest sliding window (300 seconds) plus one minute any longer
+        metricsEntry.recordSlowCall(1_500, 100);
+
+        long[] histogram = new long[LatencyHistogram.BUCKET_COUNT];
+        Assertions.assertEquals(1, metricsEntry.mergeHistograms(1_000, 1_009, histogram));
+        Assertions.assertEquals(60, Arrays.stream(histogram).sum());
+    }
+
+    @Test
+    void retainedHeapOfDenseKeysIsBounded() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        long usedHeapBefore = measureUsedHeap(memoryMXBean);
+
+        List<MetricsEntry> metricsEntries = new ArrayList<>(DENSE_KEY_COUNT);
+        for (int i = 0; i < DENSE_KEY_COUNT; i++) {
+            MetricsEntry metricsEntry = new MetricsEntry();
+            for (long timeSlot = 0; timeSlot < DENSE_PERIOD; timeSlot++) { //one call per second
+                metricsEntry.recordSlowCall(timeSlot, 150);
+            }
+            metricsEntries.add(metricsEntry);
+        }
+
+        long retainedHeapPerKey = (measureUsedHeap(memoryMXBean) - usedHeapBefore) / DENSE_KEY_COUNT;
+
+        Assertions.assertEquals(DENSE_KEY_COUNT, metricsEntries.size());
+        //a histogram per second would need about 1 KB per second (> 7 MB per key)
+        Assertions.assertTrue(retainedHeapPerKey < 2 * 1024 * 1024, "retained heap per key: " + retainedHeapPerKey + " bytes");
+    }
+
+    @Test
+    void storageGrowsOnDemand() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        Assertions.assertEquals(0, metricsEntry.getAllocatedSlotCount());
+
+        metricsEntry.recordSlowCall(1_000, 100);
+        int slotsOfOneChunk = metricsEntry.getAllocatedSlotCount();
+        Assertions.assertTrue(slotsOfOneChunk > 0 && slotsOfOneChunk < 100);
+
+        metricsEntry.recordSlowCall(1_001, 100);
+        Assertions.assertEquals(slotsOfOneChunk, metricsEntry.getAllocatedSlotCount());
+
+        metricsEntry.recordSlowCall(1_000 + CAPACITY / 2, 100);
+        Assertions.assertEquals(2 * slotsOfOneChunk, metricsEntry.getAllocatedSlotCount());
+    }
+
+    @Test
+    void retainedHeapOfSparseKeysIsSmall() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        long usedHeapBefore = measureUsedHeap(memoryMXBean);
+
+        List<MetricsEntry> metricsEntries = new ArrayList<>(SPARSE_KEY_COUNT);
+        for (int i = 0; i < SPARSE_KEY_COUNT; i++) {
+            MetricsEntry metricsEntry = new MetricsEntry();
+            metricsEntry.recordSlowCall(1_000 + i, 150); //one call per key
+            metricsEntries.add(metricsEntry);
+        }
+
+        long retainedHeapPerKey = (measureUsedHeap(memoryMXBean) - usedHeapBefore) / SPARSE_KEY_COUNT;
+
+        Assertions.assertEquals(SPARSE_KEY_COUNT, metricsEntries.size());
+        //a fully preallocated history of 12 hours would need several MB per key
+        Assertions.assertTrue(retainedHeapPerKey < 32 * 1024, "retained heap per key: " + retainedHeapPerKey + " bytes");
+    }
+
+    private static long measureUsedHeap(MemoryMXBean memoryMXBean) {
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            result = Math.min(result, memoryMXBean.getHeapMemoryUsage().getUsed());
+        }
+        return result;
+    }
+}
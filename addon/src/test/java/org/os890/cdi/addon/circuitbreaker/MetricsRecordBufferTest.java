@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.impl.MetricsRecordBuffer;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+import org.os890.cdi.addon.metrics.impl.StatsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Integration test for the hand-over of recorded calls via the {@link MetricsRecordBuffer}.
+ */
+@EnableTestBeans
+class MetricsRecordBufferTest {
+
+    @Inject
+    private MetricsRecordBuffer metricsRecordBuffer;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void keysGetRegisteredOnce() {
+        int keyId = metricsRecordBuffer.registerKey("test#registerOnce", 1_000);
+
+        Assertions.assertEquals(keyId, metricsRecordBuffer.registerKey("test#registerOnce", 1_000));
+        Assertions.assertNotEquals(keyId, metricsRecordBuffer.registerKey("test#otherKey", 1_000));
+    }
+
+    @Test
+    void keyIdsAreSharedWithTheStorage() {
+        int keyId = metricsRecordBuffer.registerKey("test#sharedKeyId", 1_000);
+
+        Assertions.assertEquals(keyId, metricsStorage.registerKey("test#sharedKeyId", 1_000));
+        Assertions.assertEquals("test#sharedKeyId", metricsStorage.getKey(keyId));
+    }
+
+    @Test
+    void recordsReachTheStorage() throws Exception {
+        int keyId = metricsRecordBuffer.registerKey("test#singleProducer", 1_000);
+
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(metricsRecordBuffer.offer(keyId, 150_000));
+        }
+
+        Assertions.assertEquals(10, awaitRecordedCalls("test#singleProducer", 10));
+    }
+
+    @Test
+    void concurrentProducersLoseNoRecords() throws Exception {
+        int keyId = metricsRecordBuffer.registerKey("test#multipleProducers", 1_000);
+        long droppedBefore = metricsRecordBuffer.getDroppedRecordCount();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread producer = new Thread(() -> {
+                for (int j = 0; j < 20_000; j++) {
+                    metricsRecordBuffer.offer(keyId, 150_000);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        long dropped = metricsRecordBuffer.getDroppedRecordCount() - droppedBefore;
+        Assertions.assertEquals(80_000 - dropped, awaitRecordedCalls("test#multipleProducers", 80_000 - dropped));
+    }
+
+    private long awaitRecordedCalls(String key, long expectedCallCount) throws InterruptedException {
+        long recordedCalls = 0;
+        for (int i = 0; i < 100 && recordedCalls < expectedCallCount; i++) {
+            Thread.sleep(20);
+            recordedCalls = 0;
+            for (StatsEntry statsEntry : metricsStorage.getOrCreateEntry(key).getStatsEntries()) {
+                recordedCalls += statsEntry.getNumberOfCalls();
+            }
+        }
+        return recordedCalls;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsRetention;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+import org.os890.cdi.addon.metrics.impl.StatsEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Integration test for the {@link MetricsRetention} of the {@link MetricsStorage}.
+ */
+@EnableTestBeans
+class MetricsRetentionTest {
+
+    private static final long CAPACITY = 12 * 60 * 60;
+
+    @Inject
+    private MetricsRetention metricsRetention;
+
+    @Inject
+    private MetricsStorage metricsStorage;
+
+    @Test
+    void keysWithoutRetainedCallsGetRemoved() {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        MetricsEntry idleEntry = metricsStorage.getOrCreateEntry("test#idle");
+        idleEntry.recordSlowCall(currentTimeSlot - CAPACITY - 1_000, 100);
+        MetricsEntry activeEntry = metricsStorage.getOrCreateEntry("test#active");
+        activeEntry.recordSlowCall(currentTimeSlot, 100);
+        long runCount = metricsRetention.getRunCount();
+        long releasedSlotCount = metricsRetention.getReleasedSlotCount();
+
+        long releasedSlots = metricsRetention.expire(-1, currentTimeSlot);
+
+        Assertions.assertTrue(releasedSlots >= 64);
+        Assertions.assertEquals(releasedSlots, metricsRetention.getLastReleasedSlotCount());
+        Assertions.assertEquals(releasedSlotCount + releasedSlots, metricsRetention.getReleasedSlotCount());
+        Assertions.assertEquals(runCount + 1, metricsRetention.getRunCount());
+        Assertions.assertTrue(metricsRetention.getLastRemovedEntryCount() >= 1);
+        Assertions.assertTrue(metricsRetention.getLastRunDurationNanos() > 0);
+
+        Assertions.assertNotSame(idleEntry, metricsStorage.getOrCreateEntry("test#idle"));
+        Assertions.assertSame(activeEntry, metricsStorage.getOrCreateEntry("test#active"));
+        Assertions.assertEquals(1, activeEntry.getStatsEntries().size());
+    }
+
+    @Test
+    void keyIdsResolveTheEntryAgainAfterTheRemoval() {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        int keyId = metricsStorage.registerKey("test#removedById", 1_000);
+        metricsStorage.record(keyId, 1_000, CallOutcome.SUCCESS);
+        MetricsEntry removedEntry = metricsStorage.getOrCreateEntry("test#removedById");
+        Assertions.assertEquals(1, removedEntry.getStatsEntries().size());
+
+        metricsRetention.expire(-1, currentTimeSlot + CAPACITY + 1_000);
+        metricsStorage.record(keyId, 1_000, CallOutcome.SUCCESS);
+
+        MetricsEntry newEntry = metricsStorage.getOrCreateEntry("test#removedById");
+        Assertions.assertNotSame(removedEntry, newEntry);
+        Assertions.assertEquals(1, newEntry.getStatsEntries().size());
+    }
+
+    @Test
+    void keysWithAnOpenCircuitAreKept() {
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        MetricsEntry openEntry = metricsStorage.getOrCreateEntry("test#idleButOpen");
+        openEntry.onOpenCircuit();
+
+        //the circuit state of the latest second expires as well
+        metricsRetention.expire(-1, currentTimeSlot + CAPACITY + 1_000);
+
+        Assertions.assertTrue(openEntry.isEmpty());
+        Assertions.assertSame(openEntry, metricsStorage.getOrCreateEntry("test#idleButOpen"));
+    }
+
+    @Test
+    void callsRecordedInParallelToTheRemovalDontGetLost() throws Exception {
+        int keyCount = 5_000;
+        long currentTimeSlot = MetricsEntry.createCurrentKey();
+        int[] keyIds = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keyIds[i] = metricsStorage.registerKey("test#interleaved" + i, 1_000);
+            //an empty entry which can get removed in parallel to the first call
+            metricsStorage.getOrCreateEntry("test#interleaved" + i);
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean recording = new AtomicBoolean(true);
+        Thread retentionThread = new Thread(() -> {
+            started.countDown();
+            while (recording.get()) {
+                //nothing expires, just the empty entries get removed
+                metricsRetention.expire(currentTimeSlot, currentTimeSlot);
+            }
+        });
+        retentionThread.start();
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            for (int keyId : keyIds) {
+                metricsStorage.record(keyId, 1_000, CallOutcome.SUCCESS);
+            }
+        } finally {
+            recording.set(false);
+            retentionThread.join();
+        }
+
+        for (int i = 0; i < keyCount; i++) {
+            metricsStorage.record(keyIds[i], 1_000, CallOutcome.SUCCESS);
+
+            int numberOfCalls = 0;
+            for (StatsEntry statsEntry : metricsStorage.getOrCreateEntry("test#interleaved" + i).getStatsEntries()) {
+                numberOfCalls += statsEntry.getNumberOfCalls();
+            }
+            Assertions.assertEquals(2, numberOfCalls, "test#interleaved" + i);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsSnapshot;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Test for {@link MetricsStorage#snapshot(long, long)}.
+ */
+class MetricsSnapshotTest {
+
+    @Test
+    void snapshotContainsAllStatsOfTheWindow() throws NoSuchMethodException {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        //threshold: 250 microseconds
+        Method method = FilterMethodsFasterThanTest.AnnotatedMethods.class.getMethod("filteredInMicros");
+
+        for (int i = 1; i <= 1_000; i++) {
+            metricsStorage.record("test#snapshot", method, 1_000 + i);
+        }
+        metricsStorage.record("test#snapshot", method, 100); //fast call
+        metricsStorage.getOrCreateEntry("test#snapshot").onOpenCircuit();
+
+        MetricsSnapshot snapshot = metricsStorage.snapshot(60);
+        MetricsSnapshot.MethodStats methodStats = snapshot.getStats("test#snapshot");
+
+        Assertions.assertEquals(1_000, methodStats.getNumberOfCalls());
+        Assertions.assertEquals(1, methodStats.getNumberOfFastCalls());
+        Assertions.assertEquals(1_001, methodStats.getMinDuration());
+        Assertions.assertEquals(2_000, methodStats.getMaxDuration());
+        Assertions.assertEquals(1_500.5, methodStats.getMeanDuration(), 0.0001);
+        Assertions.assertEquals(1_000d / 1_001, methodStats.getSlowCallRatio(), 0.0001);
+        assertAround(1_500, methodStats.getP50());
+        assertAround(1_900, methodStats.getP90());
+        assertAround(1_990, methodStats.getP99());
+        Assertions.assertEquals(2_000, methodStats.getP999()); //limited by the max. duration
+        Assertions.assertEquals(CircuitState.Value.OPEN, methodStats.getCircuitState());
+    }
+
+    @Test
+    void windowWithoutCallsHasEmptyStats() throws NoSuchMethodException {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        metricsStorage.record("test#empty", FilterMethodsFasterThanTest.AnnotatedMethods.class.getMethod("filteredInMicros"), 1_000);
+
+        MetricsSnapshot snapshot = metricsStorage.snapshot(1_000, 2_000);
+        MetricsSnapshot.MethodStats methodStats = snapshot.getStats("test#empty");
+
+        Assertions.assertEquals(0, methodStats.getNumberOfCalls());
+        Assertions.assertEquals(0, methodStats.getMaxDuration());
+        Assertions.assertEquals(0, methodStats.getP99());
+        Assertions.assertEquals(0d, methodStats.getSlowCallRatio());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.getStatsPerKey().clear());
+    }
+
+    @Test
+    void percentilesAreLimitedToTheDurationsOfTheWindow() {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        MetricsEntry metricsEntry = metricsStorage.getOrCreateEntry("test#limited");
+        for (long timeSlot = 960; timeSlot < 1_000; timeSlot++) { //faster calls of the same minute
+            metricsEntry.recordSlowCall(timeSlot, 100);
+        }
+        for (long timeSlot = 1_000; timeSlot < 1_010; timeSlot++) {
+            metricsEntry.recordSlowCall(timeSlot, 5_000);
+        }
+        //the minute isn't a recent one, so the window uses its histogram
+        metricsEntry.recordSlowCall(1_500, 100);
+
+        MetricsSnapshot.MethodStats methodStats = metricsStorage.snapshot(1_000, 1_009).getStats("test#limited");
+
+        Assertions.assertEquals(10, methodStats.getNumberOfCalls());
+        Assertions.assertEquals(5_000, methodStats.getMinDuration());
+        Assertions.assertEquals(5_000, methodStats.getP50());
+        Assertions.assertEquals(5_000, methodStats.getP999());
+        Assertions.assertEquals(5_000L, metricsStorage.calcPercentile(0.5, 1_000, 1_009).get("test#limited"));
+        Assertions.assertFalse(metricsStorage.calcPercentile(0.5, 1_020, 1_030).containsKey("test#limited"));
+    }
+
+    @Test
+    void parallelAggregationCoversAllKeys() throws NoSuchMethodException {
+        MetricsStorage metricsStorage;
+        System.setProperty("MetricsStorage_parallelismThreshold", "2");
+        try {
+            metricsStorage = new MetricsStorage();
+        } finally {
+            System.clearProperty("MetricsStorage_parallelismThreshold");
+        }
+        Assertions.assertEquals(2, metricsStorage.getParallelismThreshold());
+
+        Method method = FilterMethodsFasterThanTest.AnnotatedMethods.class.getMethod("filteredInMicros");
+        int keyCount = 2_000;
+        for (int i = 0; i < keyCount; i++) {
+            metricsStorage.record("test#parallel" + i, method, 1_000 + i);
+            metricsStorage.record("test#parallel" + i, method, 3_000 + i);
+        }
+
+        MetricsSnapshot snapshot = metricsStorage.snapshot(60);
+        Map<String, Long> maxPerKey = metricsStorage.calcOverallMax();
+        Map<String, Long> averagePerKey = metricsStorage.calcOverallAverage();
+
+        Assertions.assertEquals(keyCount, snapshot.getStatsPerKey().size());
+        Assertions.assertEquals(keyCount, maxPerKey.size());
+        for (int i = 0; i < keyCount; i++) {
+            MetricsSnapshot.MethodStats methodStats = snapshot.getStats("test#parallel" + i);
+
+            Assertions.assertEquals(2, methodStats.getNumberOfCalls());
+            Assertions.assertEquals(1_000 + i, methodStats.getMinDuration());
+            Assertions.assertEquals(3_000L + i, maxPerKey.get("test#parallel" + i));
+            Assertions.assertEquals(2_000L + i, averagePerKey.get("test#parallel" + i));
+        }
+    }
+
+    private static void assertAround(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(actual - expected) <= expected / 8, "expected: ~" + expected + " actual: " + actual);
+    }
+}
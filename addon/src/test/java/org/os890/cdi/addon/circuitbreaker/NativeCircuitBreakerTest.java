@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import dev.failsafe.TimeoutExceededException;
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitEvent;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.impl.NativeCircuitBreaker;
+import org.os890.cdi.addon.circuitbreaker.impl.TimedFailureWindow;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the {@link NativeCircuitBreaker} - standalone and via the interceptor.
+ */
+@EnableTestBeans
+class NativeCircuitBreakerTest {
+
+    @Inject
+    private NativeEngineService nativeEngineService;
+
+    @Inject
+    private CircuitEventRecorder circuitEventRecorder;
+
+    @Test
+    void failureWindowOpensCircuit() {
+        NativeCircuitBreaker circuitBreaker = new NativeCircuitBreaker(3, 5, 1, TimeUnit.SECONDS.toNanos(10), state -> { });
+
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertTrue(circuitBreaker.tryAcquirePermit());
+            circuitBreaker.recordSuccess();
+        }
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(2, circuitBreaker.getFailureCount());
+
+        //pushes the first failure out of the window of 5 executions
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordSuccess();
+        Assertions.assertEquals(1, circuitBreaker.getFailureCount());
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(CircuitState.Value.OPEN, circuitBreaker.getState());
+        Assertions.assertTrue(circuitBreaker.isRejecting());
+        Assertions.assertFalse(circuitBreaker.tryAcquirePermit());
+    }
+
+    @Test
+    void halfOpenCircuitLimitsTrialExecutions() {
+        NativeCircuitBreaker circuitBreaker = new NativeCircuitBreaker(1, 1, 2, 0, state -> { });
+
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(CircuitState.Value.OPEN, circuitBreaker.getState());
+
+        Assertions.assertTrue(circuitBreaker.tryAcquirePermit());
+        Assertions.assertEquals(CircuitState.Value.HALF_OPEN, circuitBreaker.getState());
+        Assertions.assertTrue(circuitBreaker.tryAcquirePermit());
+        Assertions.assertFalse(circuitBreaker.tryAcquirePermit());
+
+        circuitBreaker.recordSuccess();
+        Assertions.assertEquals(CircuitState.Value.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.recordSuccess();
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void timedFailureWindowOpensCircuit() {
+        List<CircuitState.Value> states = new CopyOnWriteArrayList<>();
+        NativeCircuitBreaker circuitBreaker = new NativeCircuitBreaker(
+                TimedFailureWindow.of(TimeUnit.MINUTES.toNanos(1), 1, 2), 1, 0, states::add);
+
+        //more failures than a count-based window of 2 executions would allow
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(2, circuitBreaker.getFailureCount());
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(CircuitState.Value.OPEN, circuitBreaker.getState());
+
+        //the window gets reset once the circuit is closed again
+        Assertions.assertTrue(circuitBreaker.tryAcquirePermit());
+        circuitBreaker.recordSuccess();
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+        Assertions.assertEquals(0, circuitBreaker.getFailureCount());
+        circuitBreaker.recordFailure();
+        Assertions.assertEquals(CircuitState.Value.CLOSED, circuitBreaker.getState());
+
+        Assertions.assertEquals(List.of(CircuitState.Value.OPEN, CircuitState.Value.HALF_OPEN, CircuitState.Value.CLOSED), states);
+    }
+
+    @Test
+    void failureAfterTheTimeoutIsATimeout() {
+        //same outcome as with Failsafe
+        Assertions.assertThrows(TimeoutExceededException.class, () -> nativeEngineService.timedOutFailure());
+    }
+
+    @Test
+    void interceptorUsesNativeEngineAndFiresCircuitEvents() throws InterruptedException {
+        nativeEngineService.setShouldFail(true);
+
+        boolean circuitOpened = false;
+        for (int i = 0; i < 10; i++) {
+            try {
+                nativeEngineService.call();
+            } catch (ServiceOverloadedException e) {
+                circuitOpened = true;
+                break;
+            } catch (RuntimeException e) {
+                // counting toward threshold
+            }
+        }
+        Assertions.assertTrue(circuitOpened, "Circuit should have opened");
+
+        nativeEngineService.setShouldFail(false);
+        Thread.sleep(400);
+
+        Assertions.assertEquals("native", nativeEngineService.call());
+        Assertions.assertEquals("native", nativeEngineService.call());
+
+        List<CircuitState.Value> states = circuitEventRecorder.getCircuitEvents().stream()
+                .filter(circuitEvent -> circuitEvent.getMethodKey().startsWith("class " + NativeEngineService.class.getName()))
+                .map(CircuitEvent::getCircuitStateValue)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(List.of(CircuitState.Value.OPEN, CircuitState.Value.HALF_OPEN, CircuitState.Value.CLOSED), states);
+    }
+}
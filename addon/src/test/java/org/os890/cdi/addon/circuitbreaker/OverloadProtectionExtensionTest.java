@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.enterprise.inject.spi.BeanManager;
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.impl.OverloadProtectionExtension;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Integration test that verifies {@link OverloadProtectionExtension} finds
+ * (and validates) the protected methods during the bootstrapping process.
+ */
+@EnableTestBeans
+class OverloadProtectionExtensionTest {
+
+    @Inject
+    private BeanManager beanManager;
+
+    @Test
+    void protectedMethodsAreFoundDuringBootstrapping() throws NoSuchMethodException {
+        Collection<Method> protectedMethods = beanManager.getExtension(OverloadProtectionExtension.class).getProtectedMethods();
+
+        Assertions.assertTrue(protectedMethods.contains(ProtectedService.class.getMethod("doWork")));
+        Assertions.assertTrue(protectedMethods.contains(RecoverableService.class.getMethod("call")));
+        Assertions.assertFalse(protectedMethods.contains(ProtectedService.class.getMethod("setShouldFail", boolean.class)));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+import org.os890.cdi.addon.circuitbreaker.api.RateLimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test service with rate-limited methods.
+ */
+@ApplicationScoped
+public class RateLimitedService {
+
+    /**
+     * A protected method with 2 permits per hour.
+     *
+     * @return a result string
+     */
+    @OverloadProtection(collectMetrics = false)
+    @RateLimit(permits = 2, period = 1, periodUnit = TimeUnit.HOURS)
+    public String call() {
+        return "limited";
+    }
+
+    /**
+     * A protected method with one permit per 100 milliseconds, which waits up to 1 second for a permit.
+     *
+     * @return a result string
+     */
+    @OverloadProtection(collectMetrics = false, engine = OverloadProtection.Engine.NATIVE)
+    @RateLimit(permits = 10, maxWait = 1, maxWaitUnit = TimeUnit.SECONDS, mode = RateLimit.Mode.SMOOTH)
+    public String waitingCall() {
+        return "waiting";
+    }
+}
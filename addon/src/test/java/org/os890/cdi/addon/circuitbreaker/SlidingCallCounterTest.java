@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Test for the slow-call ratios of the sliding windows of {@link MetricsEntry} and {@link MetricsStorage}.
+ */
+class SlidingCallCounterTest {
+
+    @Test
+    void windowsJustContainTheirSeconds() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        Assertions.assertArrayEquals(new int[] {10, 60, 300}, metricsEntry.getSlidingWindows());
+
+        for (long timeSlot = 1_000; timeSlot < 1_015; timeSlot++) {
+            if (timeSlot < 1_005) {
+                metricsEntry.recordSlowCall(timeSlot, 100);
+            }
+            metricsEntry.recordFastCall(timeSlot);
+        }
+
+        //[1005, 1014]: just fast calls
+        Assertions.assertEquals(0d, metricsEntry.getSlowCallRatio(10, 1_014));
+        Assertions.assertEquals(0.25d, metricsEntry.getSlowCallRatio(60, 1_014));
+        Assertions.assertEquals(0.25d, metricsEntry.getSlowCallRatio(300, 1_014));
+
+        long[] slowAndFastCalls = new long[2];
+        metricsEntry.readSlidingCallCounts(60, 1_014, slowAndFastCalls);
+        Assertions.assertArrayEquals(new long[] {5, 15}, slowAndFastCalls);
+
+        //[1004, 1063]: the first 4 seconds left the window
+        metricsEntry.readSlidingCallCounts(60, 1_063, slowAndFastCalls);
+        Assertions.assertArrayEquals(new long[] {1, 11}, slowAndFastCalls);
+        metricsEntry.readSlidingCallCounts(300, 1_063, slowAndFastCalls);
+        Assertions.assertArrayEquals(new long[] {5, 15}, slowAndFastCalls);
+
+        //a previous second doesn't move the window back
+        metricsEntry.readSlidingCallCounts(60, 1_014, slowAndFastCalls);
+        Assertions.assertArrayEquals(new long[] {1, 11}, slowAndFastCalls);
+
+        metricsEntry.readSlidingCallCounts(300, 1_014 + 300, slowAndFastCalls);
+        Assertions.assertArrayEquals(new long[] {0, 0}, slowAndFastCalls);
+        Assertions.assertEquals(0d, metricsEntry.getSlowCallRatio(300, 1_014 + 300));
+    }
+
+    @Test
+    void lateCallsJustCountInTheWindowsWhichContainTheirSecond() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        metricsEntry.recordFastCall(2_000);
+        metricsEntry.recordSlowCall(1_980, 100);
+
+        Assertions.assertEquals(0d, metricsEntry.getSlowCallRatio(10, 2_000));
+        Assertions.assertEquals(0.5d, metricsEntry.getSlowCallRatio(60, 2_000));
+    }
+
+    @Test
+    void unknownWindowIsRejected() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metricsEntry.getSlowCallRatio(30));
+    }
+
+    @Test
+    void storageCalculatesTheRatiosPerKey() throws NoSuchMethodException {
+        MetricsStorage metricsStorage = new MetricsStorage();
+        //threshold: 250 microseconds
+        Method method = FilterMethodsFasterThanTest.AnnotatedMethods.class.getMethod("filteredInMicros");
+
+        metricsStorage.record("test#ratio", method, 1_000);
+        for (int i = 0; i < 3; i++) {
+            metricsStorage.record("test#ratio", method, 10);
+        }
+        metricsStorage.record("test#fastOnly", method, 10);
+
+        Map<String, Double> ratios = metricsStorage.calcSlowCallRatio(60);
+        Assertions.assertEquals(2, ratios.size());
+        Assertions.assertEquals(0.25d, ratios.get("test#ratio"));
+        Assertions.assertEquals(0d, ratios.get("test#fastOnly"));
+
+        Assertions.assertEquals(20d, metricsStorage.calcPercentageOfSlowCalls());
+        Assertions.assertEquals(20d, metricsStorage.calcPercentageOfSlowCalls(10));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitEvent;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.api.SlowCallThreshold;
+import org.os890.cdi.addon.circuitbreaker.impl.SlowCallTracker;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for {@link SlowCallThreshold} - the {@link SlowCallTracker} standalone and both engines via the interceptor.
+ */
+@EnableTestBeans
+class SlowCallThresholdTest {
+
+    @Inject
+    private SlowService slowService;
+
+    @Inject
+    private CircuitEventRecorder circuitEventRecorder;
+
+    @Test
+    void slowCallRateOfFullWindowTripsTracker() {
+        SlowCallTracker slowCallTracker = new SlowCallTracker(TimeUnit.MILLISECONDS.toNanos(10), 50, 4);
+        long slow = TimeUnit.MILLISECONDS.toNanos(10);
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+
+        //the window isn't full yet
+        Assertions.assertFalse(slowCallTracker.record(slow, false));
+        Assertions.assertFalse(slowCallTracker.record(slow, false));
+        Assertions.assertFalse(slowCallTracker.record(fast, false));
+        Assertions.assertEquals(2, slowCallTracker.getSlowCallCount());
+        Assertions.assertEquals(3, slowCallTracker.getCallCount());
+
+        //fast calls don't trip it, even with a full window
+        Assertions.assertFalse(slowCallTracker.record(fast, false));
+        //replaces the first slow call
+        Assertions.assertFalse(slowCallTracker.record(fast, false));
+        Assertions.assertEquals(1, slowCallTracker.getSlowCallCount());
+        Assertions.assertEquals(4, slowCallTracker.getCallCount());
+
+        //replaces the second slow call
+        Assertions.assertFalse(slowCallTracker.record(slow, false));
+        Assertions.assertTrue(slowCallTracker.record(slow, false));
+        Assertions.assertEquals(0, slowCallTracker.getCallCount());
+    }
+
+    @Test
+    void slowTrialExecutionTripsTracker() {
+        SlowCallTracker slowCallTracker = new SlowCallTracker(TimeUnit.MILLISECONDS.toNanos(10), 100, 32);
+
+        Assertions.assertFalse(slowCallTracker.record(TimeUnit.MILLISECONDS.toNanos(1), true));
+        Assertions.assertTrue(slowCallTracker.record(TimeUnit.MILLISECONDS.toNanos(10), true));
+        Assertions.assertEquals(0, slowCallTracker.getCallCount());
+    }
+
+    @Test
+    void invalidWindowIsRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SlowCallTracker(1, 50, SlowCallTracker.MAX_WINDOW + 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SlowCallTracker(1, 0, 10));
+    }
+
+    @Test
+    void slowCallsOpenFailsafeCircuit() throws InterruptedException {
+        assertSlowCallsOpenCircuit("failsafe", "call");
+    }
+
+    @Test
+    void slowCallsOpenNativeCircuit() throws InterruptedException {
+        assertSlowCallsOpenCircuit("native", "callNative");
+    }
+
+    private void assertSlowCallsOpenCircuit(String expectedResult, String methodName) throws InterruptedException {
+        boolean nativeEngine = "native".equals(expectedResult);
+
+        //slow calls still return their result
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals(expectedResult, call(nativeEngine, 20));
+        }
+        Assertions.assertThrows(ServiceOverloadedException.class, () -> call(nativeEngine, 0));
+
+        Thread.sleep(300);
+        //a slow trial execution re-opens the circuit
+        Assertions.assertEquals(expectedResult, call(nativeEngine, 20));
+        Assertions.assertThrows(ServiceOverloadedException.class, () -> call(nativeEngine, 0));
+
+        Thread.sleep(300);
+        Assertions.assertEquals(expectedResult, call(nativeEngine, 0));
+        Assertions.assertEquals(expectedResult, call(nativeEngine, 0));
+
+        String methodKey = "class " + SlowService.class.getName() + "#" + methodName + "|long";
+        List<CircuitState.Value> states = circuitEventRecorder.getCircuitEvents().stream()
+                .filter(circuitEvent -> circuitEvent.getMethodKey().equals(methodKey))
+                .map(CircuitEvent::getCircuitStateValue)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(CircuitState.Value.OPEN, states.get(0));
+        Assertions.assertEquals(CircuitState.Value.CLOSED, states.get(states.size() - 1));
+        Assertions.assertEquals(2, states.stream().filter(state -> state == CircuitState.Value.OPEN).count());
+    }
+
+    private String call(boolean nativeEngine, long sleepMillis) throws InterruptedException {
+        return nativeEngine ? slowService.callNative(sleepMillis) : slowService.call(sleepMillis);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.os890.cdi.addon.circuitbreaker.api.CircuitOpenDelay;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+import org.os890.cdi.addon.circuitbreaker.api.SlowCallThreshold;
+import org.os890.cdi.addon.circuitbreaker.api.SuccessThreshold;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test service whose circuits open because of slow (but successful) calls.
+ */
+@ApplicationScoped
+public class SlowService {
+
+    /**
+     * A protected method which uses Failsafe.
+     *
+     * @param sleepMillis the duration of the call
+     * @return a result string
+     * @throws InterruptedException if the thread gets interrupted
+     */
+    @OverloadProtection(collectMetrics = false)
+    @SlowCallThreshold(duration = 10, timeUnit = TimeUnit.MILLISECONDS, rate = 50, window = 4)
+    @SuccessThreshold(1)
+    @CircuitOpenDelay(delay = 200, timeUnit = TimeUnit.MILLISECONDS)
+    public String call(long sleepMillis) throws InterruptedException {
+        Thread.sleep(sleepMillis);
+        return "failsafe";
+    }
+
+    /**
+     * A protected method which uses the native engine.
+     *
+     * @param sleepMillis the duration of the call
+     * @return a result string
+     * @throws InterruptedException if the thread gets interrupted
+     */
+    @OverloadProtection(collectMetrics = false, engine = OverloadProtection.Engine.NATIVE)
+    @SlowCallThreshold(duration = 10, timeUnit = TimeUnit.MILLISECONDS, rate = 50, window = 4)
+    @SuccessThreshold(1)
+    @CircuitOpenDelay(delay = 200, timeUnit = TimeUnit.MILLISECONDS)
+    public String callNative(long sleepMillis) throws InterruptedException {
+        Thread.sleep(sleepMillis);
+        return "native";
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.CircuitState;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.StatsEntry;
+
+/**
+ * Test for the {@link StatsEntry} snapshots created by a {@link MetricsEntry}.
+ */
+class StatsEntryTest {
+
+    @Test
+    void slotWithoutSlowCallsReportsZeros() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        metricsEntry.recordFastCall(1_000);
+
+        StatsEntry statsEntry = metricsEntry.getStatsEntriesPerSecond().get(1_000L);
+
+        Assertions.assertEquals(0, statsEntry.getNumberOfCalls());
+        Assertions.assertEquals(0L, statsEntry.getMinDuration());
+        Assertions.assertEquals(0L, statsEntry.getMaxDuration());
+        Assertions.assertEquals(0d, statsEntry.getAverageDuration());
+    }
+
+    @Test
+    void snapshotContainsTheStatisticsOfTheSlot() {
+        MetricsEntry metricsEntry = new MetricsEntry();
+        metricsEntry.recordSlowCall(1_000, 100);
+        metricsEntry.recordSlowCall(1_000, 300);
+        metricsEntry.recordSlowCall(1_000, 200);
+
+        StatsEntry statsEntry = metricsEntry.getStatsEntriesPerSecond().get(1_000L);
+        //later calls don't change the snapshot
+        metricsEntry.recordSlowCall(1_000, 1_000);
+
+        Assertions.assertEquals(3, statsEntry.getNumberOfCalls());
+        Assertions.assertEquals(600L, statsEntry.getTotalDuration());
+        Assertions.assertEquals(100L, statsEntry.getMinDuration());
+        Assertions.assertEquals(300L, statsEntry.getMaxDuration());
+        Assertions.assertEquals(200d, statsEntry.getAverageDuration());
+        Assertions.assertEquals(CircuitState.Value.CLOSED, statsEntry.getCircuitState());
+    }
+}
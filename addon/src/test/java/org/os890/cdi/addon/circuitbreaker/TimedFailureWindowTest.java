@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.impl.TimedFailureWindow;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link TimedFailureWindow}.
+ */
+class TimedFailureWindowTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void failureRateNeedsMinCalls() {
+        TimedFailureWindow timedFailureWindow = TimedFailureWindow.of(10 * SECOND, 1, 2);
+
+        //100% failures, but just 1 of min. 4 calls
+        Assertions.assertFalse(new TimedFailureWindow(10 * SECOND, 50, 4).record(true, 0));
+
+        Assertions.assertFalse(timedFailureWindow.record(false, 0));
+        Assertions.assertFalse(timedFailureWindow.record(false, SECOND));
+        Assertions.assertFalse(timedFailureWindow.record(false, 2 * SECOND));
+        //1 of 4 calls
+        Assertions.assertFalse(timedFailureWindow.record(true, 3 * SECOND));
+        //2 of 5 calls
+        Assertions.assertFalse(timedFailureWindow.record(true, 3 * SECOND));
+        //3 of 6 calls
+        Assertions.assertTrue(timedFailureWindow.record(true, 4 * SECOND));
+        Assertions.assertEquals(3, timedFailureWindow.getFailureCount(4 * SECOND));
+    }
+
+    @Test
+    void expiredBucketsDontCount() {
+        TimedFailureWindow timedFailureWindow = new TimedFailureWindow(10 * SECOND, 50, 2);
+
+        Assertions.assertFalse(timedFailureWindow.record(false, 0));
+        Assertions.assertFalse(timedFailureWindow.record(false, 0));
+        Assertions.assertFalse(timedFailureWindow.record(false, 0));
+        //just 1 of 4 calls failed
+        Assertions.assertFalse(timedFailureWindow.record(true, 9 * SECOND));
+        //the successful calls are outside of the period now - 2 of 2 calls failed
+        Assertions.assertTrue(timedFailureWindow.record(true, 10 * SECOND));
+        Assertions.assertEquals(2, timedFailureWindow.getFailureCount(10 * SECOND));
+        Assertions.assertEquals(0, timedFailureWindow.getFailureCount(30 * SECOND));
+
+        //same bucket index as before, but a later period
+        Assertions.assertFalse(timedFailureWindow.record(true, 30 * SECOND));
+
+        timedFailureWindow.reset();
+        Assertions.assertEquals(0, timedFailureWindow.getFailureCount(30 * SECOND));
+    }
+
+    @Test
+    void fullBucketKeepsFailureRate() {
+        TimedFailureWindow timedFailureWindow = new TimedFailureWindow(10 * SECOND, 50, 1);
+
+        for (int i = 0; i < 3_000_000; i++) {
+            timedFailureWindow.record(i % 4 == 0, 0);
+        }
+        //~25% failures
+        Assertions.assertFalse(timedFailureWindow.record(true, 0));
+        Assertions.assertTrue(timedFailureWindow.getFailureCount(0) > 100_000);
+    }
+
+    @Test
+    void failureRateGetsRoundedUp() {
+        Assertions.assertEquals(67, TimedFailureWindow.toFailureRate(2, 3));
+        Assertions.assertEquals(80, TimedFailureWindow.toFailureRate(8, 10));
+        Assertions.assertEquals(100, TimedFailureWindow.toFailureRate(5, 5));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.circuitbreaker;
+
+import jakarta.inject.Inject;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.os890.cdi.addon.circuitbreaker.api.RateLimit;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+import org.os890.cdi.addon.circuitbreaker.impl.TokenBucketRateLimiter;
+import org.os890.cdi.addon.dynamictestbean.EnableTestBeans;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link RateLimit} - the {@link TokenBucketRateLimiter} standalone and via the interceptor.
+ */
+@EnableTestBeans
+class TokenBucketRateLimiterTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @Inject
+    private RateLimitedService rateLimitedService;
+
+    @Test
+    void burstyBucketHandsOutAllPermitsAtOnce() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(3, HOUR, 3, 0);
+
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        Assertions.assertFalse(rateLimiter.tryAcquire());
+        Assertions.assertEquals(1, rateLimiter.getRejectedCalls());
+    }
+
+    @Test
+    void smoothBucketSpreadsPermits() {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(3, HOUR, 1, 0);
+
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        Assertions.assertFalse(rateLimiter.tryAcquire());
+    }
+
+    @Test
+    void callsWaitForTheNextPermit() {
+        //one permit per 100 milliseconds
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, TimeUnit.SECONDS.toNanos(1), 1,
+                TimeUnit.MILLISECONDS.toNanos(150));
+
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        long start = System.nanoTime();
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void callsAreRejectedIfTheNextPermitIsBeyondMaxWait() {
+        //one permit per 100 milliseconds
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, TimeUnit.SECONDS.toNanos(1), 1,
+                TimeUnit.MILLISECONDS.toNanos(10));
+
+        Assertions.assertTrue(rateLimiter.tryAcquire());
+        long start = System.nanoTime();
+        Assertions.assertFalse(rateLimiter.tryAcquire());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        Assertions.assertEquals(1, rateLimiter.getRejectedCalls());
+    }
+
+    @Test
+    void interceptorRejectsCallsExceedingTheRate() {
+        Assertions.assertEquals("limited", rateLimitedService.call());
+        Assertions.assertEquals("limited", rateLimitedService.call());
+        Assertions.assertThrows(ServiceOverloadedException.class, () -> rateLimitedService.call());
+    }
+
+    @Test
+    void interceptorWaitsForPermits() {
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("waiting", rateLimitedService.waitingCall());
+        }
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+}
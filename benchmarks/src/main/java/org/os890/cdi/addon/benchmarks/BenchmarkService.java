@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import org.os890.cdi.addon.circuitbreaker.api.CircuitOpenDelay;
+import org.os890.cdi.addon.circuitbreaker.api.FailureThreshold;
+import org.os890.cdi.addon.circuitbreaker.api.OverloadProtection;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean with no-op methods used by the benchmarks.
+ */
+@ApplicationScoped
+public class BenchmarkService {
+
+    /**
+     * Unprotected no-op method (baseline).
+     *
+     * @return a constant
+     */
+    public int noop() {
+        return 1;
+    }
+
+    /**
+     * No-op method protected by a Failsafe circuit breaker.
+     *
+     * @return a constant
+     */
+    @OverloadProtection(engine = OverloadProtection.Engine.FAILSAFE)
+    public int failsafeNoop() {
+        return 1;
+    }
+
+    /**
+     * No-op method protected by a native circuit breaker.
+     *
+     * @return a constant
+     */
+    @OverloadProtection(engine = OverloadProtection.Engine.NATIVE)
+    public int nativeNoop() {
+        return 1;
+    }
+
+    /**
+     * Always failing method protected by a Failsafe circuit breaker which stays open for an hour.
+     *
+     * @return never returns
+     */
+    @OverloadProtection(engine = OverloadProtection.Engine.FAILSAFE)
+    @FailureThreshold(failures = 1, executions = 1)
+    @CircuitOpenDelay(delay = 1, timeUnit = TimeUnit.HOURS)
+    public int failingFailsafe() {
+        throw new IllegalStateException("simulated failure");
+    }
+
+    /**
+     * Always failing method protected by a native circuit breaker which stays open for an hour.
+     *
+     * @return never returns
+     */
+    @OverloadProtection(engine = OverloadProtection.Engine.NATIVE)
+    @FailureThreshold(failures = 1, executions = 1)
+    @CircuitOpenDelay(delay = 1, timeUnit = TimeUnit.HOURS)
+    public int failingNative() {
+        throw new IllegalStateException("simulated failure");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import org.jboss.weld.environment.se.Weld;
+import org.jboss.weld.environment.se.WeldContainer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.os890.cdi.addon.circuitbreaker.impl.OverloadProtectionExtension;
+import org.os890.cdi.addon.circuitbreaker.impl.OverloadProtectionInterceptor;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+/**
+ * Benchmark state which boots a CDI SE container with the add-on and the {@link BenchmarkService}.
+ */
+@State(Scope.Benchmark)
+public class CdiContainerState {
+
+    private WeldContainer container;
+    private BenchmarkService benchmarkService;
+
+    /**
+     * Boots the container (without classpath scanning).
+     */
+    @Setup(Level.Trial)
+    public void start() {
+        container = new Weld()
+                .disableDiscovery()
+                .addPackages(false, OverloadProtectionInterceptor.class, MetricsStorage.class)
+                .addBeanClass(BenchmarkService.class)
+                .addExtension(new OverloadProtectionExtension())
+                .initialize();
+        benchmarkService = container.select(BenchmarkService.class).get();
+    }
+
+    /**
+     * Shuts the container down.
+     */
+    @TearDown(Level.Trial)
+    public void stop() {
+        container.shutdown();
+    }
+
+    /**
+     * Returns the contextual reference of the {@link BenchmarkService}.
+     *
+     * @return the benchmark service
+     */
+    public BenchmarkService getBenchmarkService() {
+        return benchmarkService;
+    }
+}
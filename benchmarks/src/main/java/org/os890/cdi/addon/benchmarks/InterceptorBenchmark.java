@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the raw overhead of {@code @OverloadProtection} on a no-op method
+ * (unprotected baseline vs. Failsafe engine vs. native engine).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    /**
+     * Baseline: unprotected method of the same bean.
+     *
+     * @param state the container state
+     * @return the result of the call
+     */
+    @Benchmark
+    public int unprotected(CdiContainerState state) {
+        return state.getBenchmarkService().noop();
+    }
+
+    /**
+     * Method protected via the Failsafe engine.
+     *
+     * @param state the container state
+     * @return the result of the call
+     */
+    @Benchmark
+    public int failsafeEngine(CdiContainerState state) {
+        return state.getBenchmarkService().failsafeNoop();
+    }
+
+    /**
+     * Method protected via the native engine.
+     *
+     * @param state the container state
+     * @return the result of the call
+     */
+    @Benchmark
+    public int nativeEngine(CdiContainerState state) {
+        return state.getBenchmarkService().nativeNoop();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.os890.cdi.addon.metrics.impl.MetricsEntry;
+import org.os890.cdi.addon.metrics.impl.MetricsSnapshot;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the aggregations of {@link MetricsStorage} with one entry per second
+ * (default: 12 hours) for every key. The largest setup needs a big heap (see {@code jvmArgsAppend}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@State(Scope.Benchmark)
+public class MetricsQueryBenchmark {
+
+    @Param({"100", "1000"})
+    private int keyCount;
+
+    @Param({"43200"})
+    private int secondCount;
+
+    private MetricsStorage metricsStorage;
+    private long latestTimeSlot;
+
+    /**
+     * Fills the storage with one entry per second and key.
+     */
+    @Setup(Level.Trial)
+    public void fill() {
+        metricsStorage = new MetricsStorage();
+        latestTimeSlot = MetricsEntry.createCurrentKey();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int keyIndex = 0; keyIndex < keyCount; keyIndex++) {
+            MetricsEntry metricsEntry = metricsStorage.getOrCreateEntry("class org.os890.Service" + keyIndex + "#call");
+
+            for (long timeSlot = latestTimeSlot - secondCount + 1; timeSlot <= latestTimeSlot; timeSlot++) {
+                metricsEntry.recordSlowCall(timeSlot, 2_000 + random.nextInt(500_000));
+            }
+        }
+    }
+
+    /**
+     * Average per key.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Map<String, Long> overallAverage() {
+        return metricsStorage.calcOverallAverage(latestTimeSlot);
+    }
+
+    /**
+     * 95th percentile per key.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Map<String, Long> percentile95() {
+        return metricsStorage.calcPercentile(0.95, latestTimeSlot);
+    }
+
+    /**
+     * All statistics per key within a single pass.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public MetricsSnapshot snapshot() {
+        return metricsStorage.snapshot(0L, latestTimeSlot);
+    }
+}
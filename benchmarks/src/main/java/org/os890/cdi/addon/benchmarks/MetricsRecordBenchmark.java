@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.os890.cdi.addon.metrics.api.CallOutcome;
+import org.os890.cdi.addon.metrics.impl.MetricsStorage;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures {@link MetricsStorage#record(String, Method, long)} and {@link MetricsStorage#record(int, long, CallOutcome)}
+ * under contention.
+ * The number of threads can be changed via the JMH option {@code -t}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class MetricsRecordBenchmark {
+
+    /**
+     * Storage shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedStorage {
+
+        private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+        private MetricsStorage metricsStorage;
+        private Method method;
+        private int sharedKeyId;
+
+        /**
+         * Creates the storage.
+         *
+         * @throws NoSuchMethodException if the benchmark service changed
+         */
+        @Setup(Level.Trial)
+        public void create() throws NoSuchMethodException {
+            metricsStorage = new MetricsStorage();
+            method = BenchmarkService.class.getMethod("noop");
+            sharedKeyId = metricsStorage.registerKey("shared-key", method);
+        }
+    }
+
+    /**
+     * Key of the current thread (for the benchmark without shared keys).
+     */
+    @State(Scope.Thread)
+    public static class ThreadKey {
+
+        private String key;
+
+        /**
+         * Creates a key per thread.
+         */
+        @Setup(Level.Trial)
+        public void create() {
+            key = "key-" + SharedStorage.THREAD_INDEX.incrementAndGet();
+        }
+    }
+
+    /**
+     * All threads record calls of the same method.
+     *
+     * @param storage the shared storage
+     */
+    @Benchmark
+    public void sameKey(SharedStorage storage) {
+        storage.metricsStorage.record("shared-key", storage.method, 150_000);
+    }
+
+    /**
+     * All threads record calls of the same method via its id (no hashing of the key).
+     *
+     * @param storage the shared storage
+     */
+    @Benchmark
+    public void sameKeyId(SharedStorage storage) {
+        storage.metricsStorage.record(storage.sharedKeyId, 150_000, CallOutcome.SUCCESS);
+    }
+
+    /**
+     * Every thread records calls of a different method.
+     *
+     * @param storage   the shared storage
+     * @param threadKey the key of the current thread
+     */
+    @Benchmark
+    public void keyPerThread(SharedStorage storage, ThreadKey threadKey) {
+        storage.metricsStorage.record(threadKey.key, storage.method, 150_000);
+    }
+}
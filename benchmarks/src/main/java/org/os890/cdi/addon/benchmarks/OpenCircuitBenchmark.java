@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.os890.cdi.addon.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.os890.cdi.addon.circuitbreaker.api.ServiceOverloadedException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of rejecting calls while the circuit is open.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenCircuitBenchmark {
+
+    /**
+     * Opens the circuits of both engines (they stay open for an hour).
+     *
+     * @param state the container state
+     */
+    @Setup(Level.Trial)
+    public void openCircuits(CdiContainerState state) {
+        BenchmarkService benchmarkService = state.getBenchmarkService();
+        try {
+            benchmarkService.failingFailsafe();
+        } catch (IllegalStateException e) {
+            //opens the circuit
+        }
+        try {
+            benchmarkService.failingNative();
+        } catch (IllegalStateException e) {
+            //opens the circuit
+        }
+    }
+
+    /**
+     * Rejection via the Failsafe engine.
+     *
+     * @param state the container state
+     * @return the rejection
+     */
+    @Benchmark
+    public Object failsafeEngine(CdiContainerState state) {
+        try {
+            return state.getBenchmarkService().failingFailsafe();
+        } catch (ServiceOverloadedException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Rejection via the native engine.
+     *
+     * @param state the container state
+     * @return the rejection
+     */
+    @Benchmark
+    public Object nativeEngine(CdiContainerState state) {
+        try {
+            return state.getBenchmarkService().failingNative();
+        } catch (ServiceOverloadedException e) {
+            return e;
+        }
+    }
+}